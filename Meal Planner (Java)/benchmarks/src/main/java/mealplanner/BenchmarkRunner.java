@@ -0,0 +1,25 @@
+package mealplanner;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Entry point of benchmarks.jar.  Takes the usual JMH command line and always adds the GC profiler, so every run
+ * reports allocation rate next to the throughput and the latency percentiles of the benchmark modes.
+ * <pre>
+ *   mvn -pl benchmarks -am package
+ *   java -jar benchmarks/target/benchmarks.jar                      # every benchmark and catalog size
+ *   java -jar benchmarks/target/benchmarks.jar PlanBenchmark -p meals=1000,10000
+ * </pre>
+ */
+public class BenchmarkRunner {
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+    new Runner(options).run();
+  }
+}
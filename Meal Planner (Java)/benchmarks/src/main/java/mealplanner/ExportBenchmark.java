@@ -0,0 +1,67 @@
+package mealplanner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shopping list files: ShoppingListExport writing the consolidated list of every meal of a synthetic catalog (one
+ * row per ingredient of the vocabulary) in each format, against the BufferedWriter over an appending FileWriter that
+ * the save command used before.  Every invocation replaces the file, so the appending writer is given a fresh one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dmealplanner.snapshot="})
+public class ExportBenchmark {
+  @Param({"list.txt", "list.csv", "list.json", "list.json.gz"})
+  public String filename;
+
+  private ShoppingList list;
+  private ShoppingListExport export;
+  private Path directory;
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws SQLException, IOException {
+    PlannerConfig config = PlannerConfig.load();
+    MealCatalog catalog = new MealCatalog();
+    try (MealRepository repository = SyntheticCatalog.populate("export", 10_000, config)) {
+      new Main(repository, config, catalog, new Scanner(""), SyntheticCatalog.nullOutput(), "bench").loadDatabase();
+    }
+    list = new ShoppingList();
+    for (Main.Meal meal : catalog.getAllMeals()) {
+      list.add(meal);
+    }
+    export = new ShoppingListExport();
+    directory = Files.createTempDirectory("export");
+    file = directory.resolve(filename);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(file);
+    Files.delete(directory);
+  }
+
+  @Benchmark
+  public long export() throws IOException {
+    Files.deleteIfExists(file);
+    return export.write(list, file);
+  }
+
+  @Benchmark
+  public long bufferedWriter() throws IOException {
+    Files.deleteIfExists(file);
+    try (Writer writer = new BufferedWriter(new FileWriter(file.toFile(), true))) {
+      list.writeTo(writer);
+    }
+    return Files.size(file);
+  }
+}
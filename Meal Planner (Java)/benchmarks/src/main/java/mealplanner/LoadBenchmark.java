@@ -0,0 +1,62 @@
+package mealplanner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost: Main.loadDatabase() filling a fresh MealCatalog with a synthetic catalog of "meals" meals, either by
+ * streaming every row out of the embedded database or, with "snapshot", from a CatalogSnapshot written once in setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class LoadBenchmark {
+  @Param({"1000", "100000", "1000000"})
+  public int meals;
+
+  @Param({"false", "true"})
+  public boolean snapshot;
+
+  private PlannerConfig config;
+  private MealRepository repository;
+  private PrintStream err;
+  private Path file;
+
+  @Setup(Level.Trial)
+  public void setUp() throws SQLException, IOException {
+    file = Files.createTempFile("load" + meals, ".snapshot");
+    Files.delete(file);
+    System.setProperty("mealplanner.snapshot", snapshot ? file.toString() : "");
+    config = PlannerConfig.load();
+    repository = SyntheticCatalog.populate("load" + meals, meals, config);
+    // loadDatabase reports every load on stderr
+    err = System.err;
+    System.setErr(SyntheticCatalog.nullOutput());
+    if (snapshot) {
+      loadDatabase();  // writes the snapshot
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException, IOException {
+    System.setErr(err);
+    repository.close();
+    Files.deleteIfExists(file);
+  }
+
+  @Benchmark
+  public int loadDatabase() throws SQLException {
+    MealCatalog catalog = new MealCatalog();
+    new Main(repository, config, catalog, new Scanner(""), SyntheticCatalog.nullOutput(), "bench").loadDatabase();
+    return catalog.size();
+  }
+}
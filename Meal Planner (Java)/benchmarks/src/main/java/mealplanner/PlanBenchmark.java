@@ -0,0 +1,133 @@
+package mealplanner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interactive paths over a loaded synthetic catalog of "meals" meals: validating a typed answer, a whole scripted
+ * planWeek() session, printing the week, producing the shopping list and the full save() command.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dmealplanner.snapshot="})
+public class PlanBenchmark {
+  private final static String OWNER = "bench";
+  private final static String LIST_FILE = "bench-shopping-list.txt";
+
+  @Param({"1000", "100000", "1000000"})
+  public int meals;
+
+  private PlannerConfig config;
+  private MealRepository database;
+  private MealRepository plans;  // in-memory store of the planned week, H2 has no ON CONFLICT DO UPDATE
+  private MealCatalog catalog;
+  private WeekPlan week;
+  private Main.Meal[] alternates;
+  private String[] answerCategories;
+  private String[] answerNames;
+  private String planScript;
+  private int next;
+  private PrintStream err;
+
+  @Setup(Level.Trial)
+  public void setUp() throws SQLException {
+    err = System.err;
+    System.setErr(SyntheticCatalog.nullOutput());
+    config = PlannerConfig.load();
+    database = SyntheticCatalog.populate("plan" + meals, meals, config);
+    catalog = new MealCatalog();
+    new Main(database, config, catalog, new Scanner(""), SyntheticCatalog.nullOutput(), OWNER).loadDatabase();
+
+    plans = new InMemoryMealRepository();
+    List<Main.Meal> all = new ArrayList<>();
+    for (String category : WeekPlan.CATEGORIES) {
+      all.addAll(catalog.getMeals(category));
+    }
+    plans.addMeals(all);
+
+    // a week of distinct meals spread over each category, and a second meal for the first slot
+    week = new WeekPlan();
+    StringBuilder script = new StringBuilder("plan\n");
+    List<List<Main.Meal>> choices = new ArrayList<>();
+    for (String category : WeekPlan.CATEGORIES) {
+      choices.add(new ArrayList<>(catalog.getMeals(category)));
+    }
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        List<Main.Meal> list = choices.get(category);
+        Main.Meal meal = list.get(day * list.size() / WeekPlan.DAYS.length);
+        week.set(day, category, meal);
+        script.append(meal.getName()).append('\n');
+      }
+    }
+    planScript = script.append("exit\n").toString();
+    alternates = new Main.Meal[]{choices.get(0).get(choices.get(0).size() - 1), week.get(0, 0)};
+    session(planScript);
+
+    // typed answers: mostly existing meals, one in ten misses
+    Random random = new Random(7);
+    answerCategories = new String[1024];
+    answerNames = new String[1024];
+    for (int i = 0; i < answerNames.length; i++) {
+      int mealId = random.nextInt(meals);
+      answerCategories[i] = SyntheticCatalog.category(mealId);
+      answerNames[i] = i % 10 == 0 ? SyntheticCatalog.mealName(mealId) + " x" : SyntheticCatalog.mealName(mealId);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteList() {
+    new File(LIST_FILE).delete();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    System.setErr(err);
+    database.close();
+  }
+
+  private void session(String script) throws SQLException {
+    new Main(plans, config, catalog, new Scanner(script), SyntheticCatalog.nullOutput(), OWNER).menu();
+  }
+
+  @Benchmark
+  public boolean validateAnswer() {
+    int i = next++ & (answerNames.length - 1);
+    return catalog.find(answerCategories[i], answerNames[i]) != null;
+  }
+
+  @Benchmark
+  public void planWeek() throws SQLException {
+    session(planScript);
+  }
+
+  @Benchmark
+  public String printWeek() {
+    return week.render();
+  }
+
+  @Benchmark
+  public String printWeekAfterChange() {
+    week.set(0, 0, alternates[next++ & 1]);
+    return week.render();
+  }
+
+  @Benchmark
+  public int shoppingList() throws IOException {
+    StringBuilder list = new StringBuilder();
+    week.getShoppingList().writeTo(list);
+    return list.length();
+  }
+
+  @Benchmark
+  public void save() throws SQLException {
+    session("save\n" + LIST_FILE + "\nexit\n");
+  }
+}
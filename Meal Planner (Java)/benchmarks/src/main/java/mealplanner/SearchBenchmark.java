@@ -0,0 +1,66 @@
+package mealplanner;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search command over a loaded synthetic catalog of "meals" meals: a name prefix, a part of a name and a pair of
+ * ingredients, each answered from the search indexes of the catalog.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "-Dmealplanner.snapshot="})
+public class SearchBenchmark {
+  private final static int LIMIT = 20;
+
+  @Param({"1000", "100000", "1000000"})
+  public int meals;
+
+  private MealCatalog catalog;
+  private String[] prefixes;
+  private String[] parts;
+  private String[][] ingredients;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws SQLException {
+    PlannerConfig config = PlannerConfig.load();
+    catalog = new MealCatalog();
+    try (MealRepository repository = SyntheticCatalog.populate("search" + meals, meals, config)) {
+      new Main(repository, config, catalog, new Scanner(""), SyntheticCatalog.nullOutput(), "bench").loadDatabase();
+    }
+    // queries built from existing meals, so that every one of them has at least one match
+    Random random = new Random(11);
+    prefixes = new String[256];
+    parts = new String[256];
+    ingredients = new String[256][];
+    for (int i = 0; i < prefixes.length; i++) {
+      String name = SyntheticCatalog.mealName(random.nextInt(meals));
+      prefixes[i] = name.substring(0, Math.min(name.length(), 7));
+      parts[i] = name.substring(Math.max(5, name.length() - 3));
+      Main.Meal meal = catalog.get(random.nextInt(meals));
+      ingredients[i] = new String[]{meal.getIngredient(0), meal.getIngredient(1)};
+    }
+  }
+
+  @Benchmark
+  public int prefix() {
+    return catalog.findByName(prefixes[next++ & 255], true, LIMIT, new ArrayList<>(LIMIT));
+  }
+
+  @Benchmark
+  public int substring() {
+    return catalog.findByName(parts[next++ & 255], false, LIMIT, new ArrayList<>(LIMIT));
+  }
+
+  @Benchmark
+  public int ingredients() {
+    return catalog.findByIngredients(ingredients[next++ & 255], LIMIT, new ArrayList<>(LIMIT));
+  }
+}
@@ -0,0 +1,122 @@
+package mealplanner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Generates reproducible synthetic catalogs for the benchmarks.  Meal names and ingredients are letters only so they
+ * pass the validation rules of the add command; every meal has 3 to 12 ingredients drawn from a fixed vocabulary.
+ * Catalogs are written to an in-memory H2 database in PostgreSQL mode, the embedded stand-in for meals_db.
+ */
+final class SyntheticCatalog {
+  private final static String[] CATEGORIES = {"breakfast", "lunch", "dinner"};
+  private final static int VOCABULARY = 500;  // distinct ingredients
+  private final static long SEED = 42;
+
+  private SyntheticCatalog() {
+  }
+
+  /**
+   * @param name  a name unique to the benchmark, so trials do not share data
+   * @return      the JDBC url of a private in-memory H2 database that lives until the JVM exits
+   */
+  static String url(String name) {
+    return "jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=DAY;DB_CLOSE_DELAY=-1";
+  }
+
+  /**
+   * Creates a JdbcMealRepository over the H2 database with the schema created and the given number of meals stored.
+   * @param name          a name unique to the benchmark
+   * @param meals         the number of meals to generate
+   * @param config        the settings to take the pool and fetch sizes from
+   * @return              the populated repository
+   * @throws SQLException if the database cannot be written
+   */
+  static MealRepository populate(String name, int meals, PlannerConfig config) throws SQLException {
+    String url = url(name);
+    MealRepository repository = new JdbcMealRepository(new ConnectionPool(url, "sa", "",
+            config.getInt("db.poolSize"), config.getInt("db.poolTimeout"), config.getInt("db.statementCache")),
+            config.getInt("fetchSize"));
+    repository.createSchema();
+    Random random = new Random(SEED);
+    try (Connection con = DriverManager.getConnection(url, "sa", "");
+         PreparedStatement nameStatement = con.prepareStatement("INSERT INTO ingredient_names (name) VALUES (?)");
+         PreparedStatement mealStatement = con.prepareStatement(
+                 "INSERT INTO meals (meal_id, category, meal) VALUES (?, ?, ?)");
+         PreparedStatement ingredientStatement = con.prepareStatement(
+                 "INSERT INTO meal_ingredients (ingredient_id, meal_id, name_id) VALUES (?, ?, ?)")) {
+      con.setAutoCommit(false);
+      // the fresh SERIAL column numbers the vocabulary 1..VOCABULARY in insertion order
+      for (int i = 0; i < VOCABULARY; i++) {
+        nameStatement.setString(1, ingredientName(i));
+        nameStatement.addBatch();
+      }
+      nameStatement.executeBatch();
+      int ingredientId = 0;
+      for (int mealId = 0; mealId < meals; mealId++) {
+        mealStatement.setInt(1, mealId);
+        mealStatement.setString(2, category(mealId));
+        mealStatement.setString(3, mealName(mealId));
+        mealStatement.addBatch();
+        int count = 3 + random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+          ingredientStatement.setInt(1, ingredientId++);
+          ingredientStatement.setInt(2, mealId);
+          ingredientStatement.setInt(3, 1 + random.nextInt(VOCABULARY));
+          ingredientStatement.addBatch();
+        }
+        if (mealId % 1000 == 999) {
+          mealStatement.executeBatch();
+          ingredientStatement.executeBatch();
+          con.commit();
+        }
+      }
+      mealStatement.executeBatch();
+      ingredientStatement.executeBatch();
+      con.commit();
+      // ids reserved by the planner must start after the generated ones
+      try (Statement statement = con.createStatement()) {
+        statement.executeUpdate("ALTER SEQUENCE meal_ids RESTART WITH " + meals);
+        statement.executeUpdate("ALTER SEQUENCE ingredient_ids RESTART WITH " + ingredientId);
+      }
+    }
+    return repository;
+  }
+
+  /**
+   * @param mealId  the meal_id of a generated meal
+   * @return        the category of the meal
+   */
+  static String category(int mealId) {
+    return CATEGORIES[mealId % CATEGORIES.length];
+  }
+
+  /**
+   * @param mealId  the meal_id of a generated meal
+   * @return        the name of the meal, unique and made of letters only
+   */
+  static String mealName(int mealId) {
+    return "meal " + letters(mealId);
+  }
+
+  private static String ingredientName(int index) {
+    return "ingredient " + letters(index);
+  }
+
+  private static String letters(int value) {
+    StringBuilder builder = new StringBuilder();
+    do {
+      builder.append((char) ('a' + value % 26));
+      value /= 26;
+    } while (value > 0);
+    return builder.toString();
+  }
+
+  /**
+   * @return  a PrintStream that discards everything, standing in for the console
+   */
+  static PrintStream nullOutput() {
+    return new PrintStream(OutputStream.nullOutputStream());
+  }
+}
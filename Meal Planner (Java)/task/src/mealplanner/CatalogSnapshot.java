@@ -0,0 +1,194 @@
+package mealplanner;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary image of the catalog, so that startup reads one file instead of every row of the database.  The file holds
+ * the ingredient dictionary, the meals (meal_id, category, name) and their ingredient lists as the int arrays of the
+ * IngredientTable, so loading it is a few bulk copies out of a memory mapped file plus one object per meal.  Meals
+ * are written in catalog order (by category, then name), so that adding them back to the sorted catalog appends to
+ * the end of its skip lists instead of landing at random places in them.
+ * <pre>
+ *   int magic, int format, int schema version, long change id, string source,
+ *   int categories, string[categories], int names, string[names], int meals, int references,
+ *   int[meals] meal_id, byte[meals] category, int[meals + 1] offsets, int[references] ingredient ids,
+ *   string[meals] meal names, long CRC32 of everything before it
+ * </pre>
+ * Strings are an unsigned short byte length followed by UTF-8 bytes.  A snapshot is only used if its checksum,
+ * format, schema version and source (the database it was taken from) all match; it covers the change log up to its
+ * change id, and the meals stored since are replayed from the database.
+ */
+final class CatalogSnapshot {
+  private final static int MAGIC = 0x4D504C53;  // "MPLS"
+  private final static int FORMAT = 1;
+
+  final long changeId;  // the newest change log entry the snapshot includes
+  final String[] categories;  // category index -> category
+  final String[] dictionary;  // ingredient id -> ingredient
+  final int[] mealIds;  // row -> meal_id
+  final byte[] mealCategories;  // row -> category index
+  final String[] mealNames;  // row -> name
+  final int[] offsets;  // row -> start of its ingredient ids in references, offsets[row + 1] is the end
+  final int[] references;  // the ingredient ids of all rows back to back
+
+  private CatalogSnapshot(ByteBuffer buffer, String source) throws IOException {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT) {
+      throw new IOException("not a catalog snapshot of this version");
+    }
+    if (buffer.getInt() != SchemaMigrations.latest()) {
+      throw new IOException("taken from another schema version");
+    }
+    changeId = buffer.getLong();
+    if (!readString(buffer).equals(source)) {
+      throw new IOException("taken from another database");
+    }
+    categories = readStrings(buffer, buffer.getInt());
+    dictionary = readStrings(buffer, buffer.getInt());
+    int meals = buffer.getInt();
+    references = new int[buffer.getInt()];
+    mealIds = readInts(buffer, new int[meals]);
+    mealCategories = new byte[meals];
+    buffer.get(mealCategories);
+    offsets = readInts(buffer, new int[meals + 1]);
+    readInts(buffer, references);
+    mealNames = readStrings(buffer, meals);
+  }
+
+  /**
+   * Maps a snapshot file and reads it if it is valid for the source.
+   * @param file    the snapshot file
+   * @param source  the MealRepository.source() of the current database
+   * @return        the snapshot, or null if there is no file
+   * @throws IOException  if the file cannot be read, is damaged or does not match the database
+   */
+  static CatalogSnapshot open(Path file, String source) throws IOException {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < 8 || size > Integer.MAX_VALUE) {
+        throw new IOException("damaged snapshot " + file);
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      CRC32 crc = new CRC32();
+      crc.update(buffer.slice(0, (int) size - 8));
+      if (crc.getValue() != buffer.getLong((int) size - 8)) {
+        throw new IOException("checksum mismatch in " + file);
+      }
+      try {
+        return new CatalogSnapshot(buffer.limit((int) size - 8), source);
+      } catch (RuntimeException e) {
+        throw new IOException("damaged snapshot " + file, e);
+      }
+    }
+  }
+
+  /**
+   * Writes a snapshot of the catalog, replacing the file in one atomic move once it is complete so that a crash never
+   * leaves half a snapshot behind.
+   * @param file      the snapshot file
+   * @param source    the MealRepository.source() of the database the catalog was loaded from
+   * @param changeId  the newest change log entry included in the catalog
+   * @param catalog   the catalog to write
+   * @throws IOException  if the file cannot be written
+   */
+  static void write(Path file, String source, long changeId, MealCatalog catalog) throws IOException {
+    List<Main.Meal> meals = catalog.getAllMeals();
+    IngredientTable table = catalog.getIngredients();
+    List<String> categories = new ArrayList<>();
+    int references = 0;
+    for (Main.Meal meal : meals) {
+      if (!categories.contains(meal.getCategory())) {
+        categories.add(meal.getCategory());
+      }
+      references += meal.getIngredientCount();
+    }
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    CRC32 crc = new CRC32();
+    try (OutputStream stream = new FileOutputStream(temporary.toFile());
+         DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(stream,
+                 1 << 16), crc))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeInt(SchemaMigrations.latest());
+      out.writeLong(changeId);
+      writeString(out, source);
+      out.writeInt(categories.size());
+      for (String category : categories) {
+        writeString(out, category);
+      }
+      int distinct = table.distinct();
+      out.writeInt(distinct);
+      for (int id = 0; id < distinct; id++) {
+        writeString(out, table.name(id));
+      }
+      out.writeInt(meals.size());
+      out.writeInt(references);
+      for (Main.Meal meal : meals) {
+        out.writeInt(meal.getId());
+      }
+      for (Main.Meal meal : meals) {
+        out.writeByte(categories.indexOf(meal.getCategory()));
+      }
+      int offset = 0;
+      out.writeInt(offset);
+      for (Main.Meal meal : meals) {
+        offset += meal.getIngredientCount();
+        out.writeInt(offset);
+      }
+      for (Main.Meal meal : meals) {
+        for (int i = 0; i < meal.getIngredientCount(); i++) {
+          out.writeInt(meal.getIngredientId(i));
+        }
+      }
+      for (Main.Meal meal : meals) {
+        writeString(out, meal.getName());
+      }
+      out.flush();
+      // the checksum itself is written past the checked stream
+      new DataOutputStream(stream).writeLong(crc.getValue());
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static String[] readStrings(ByteBuffer buffer, int count) {
+    String[] values = new String[count];
+    byte[] bytes = new byte[256];
+    for (int i = 0; i < count; i++) {
+      int length = buffer.getShort() & 0xFFFF;
+      if (length > bytes.length) {
+        bytes = new byte[length];
+      }
+      buffer.get(bytes, 0, length);
+      values[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+    return values;
+  }
+
+  private static int[] readInts(ByteBuffer buffer, int[] values) {
+    buffer.asIntBuffer().get(values);
+    buffer.position(buffer.position() + 4 * values.length);
+    return values;
+  }
+}
@@ -0,0 +1,138 @@
+package mealplanner;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.*;
+
+/**
+ * Keeps the catalog of this program up to date with the meals and plans that other programs store in the same
+ * database.  Every store of meals, plans or dated plans adds its entries to the change log (meal_changes) in the
+ * same transaction; a background thread tails the log every "changes.poll" ms and applies only the new entries: a
+ * meal is added to the catalog and its search indexes, and a plan marks the cached plans of its owner stale (see
+ * MealCatalog.planChanged).  The entries of this program come back as well and cost nothing, the catalog has them.
+ * Change ids are numbered when a transaction inserts its entries but become visible when it commits, so a smaller
+ * id can show up after a larger one.  The poller therefore reads on from the oldest id it has not seen rather than
+ * the newest one it has, skipping the entries it already applied, and gives up on a missing id - the entry of a
+ * transaction that rolled back - after "changes.gapTimeout" seconds.  Each run of missing ids is timed from when it
+ * was first found, so the runs of several rollbacks are given up on together rather than one timeout after another.
+ */
+class ChangePoller implements AutoCloseable {
+  private final MealRepository repository;
+  private final MealCatalog catalog;
+  private final MealRepository.MealSink meals;  // adds a stored meal to the catalog unless it is there already
+  private final long gapTimeout;  // ns
+  private final ScheduledExecutorService timer;
+  private long after;  // every entry up to this one is applied or given up on
+  private final TreeSet<Long> applied = new TreeSet<>();  // applied entries after "after"
+  private TreeMap<Long, Gap> gaps = new TreeMap<>();  // the runs of missing entries before applied ones, by first id
+
+  /** A run of missing entries, up to an applied one. */
+  private static class Gap {
+    private final long last;  // the last missing entry of the run
+    private final long since;  // System.nanoTime() when the run was found missing
+
+    private Gap(long last, long since) {
+      this.last = last;
+      this.since = since;
+    }
+  }
+
+  /**
+   * Starts polling.
+   * @param repository  the repository shared with the other programs
+   * @param catalog     the catalog to keep up to date
+   * @param meals       adds a meal of the log to the catalog, unless the catalog has it
+   * @param after       the entry the log is read after; the catalog includes every entry up to it
+   * @param interval    the ms between two polls
+   * @param gapTimeout  the seconds a missing entry is waited for
+   */
+  ChangePoller(MealRepository repository, MealCatalog catalog, MealRepository.MealSink meals, long after,
+               int interval, int gapTimeout) {
+    this.repository = repository;
+    this.catalog = catalog;
+    this.meals = meals;
+    this.after = after;
+    this.gapTimeout = TimeUnit.SECONDS.toNanos(gapTimeout);
+    this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "change-poller");
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleWithFixedDelay(this::pollQuietly, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Applies the entries of the log that are new since the last poll.
+   * @return              the number of entries applied
+   * @throws SQLException if the log cannot be read
+   */
+  synchronized int poll() throws SQLException {
+    int[] count = {0};
+    repository.tailChanges(after, new MealRepository.ChangeSink() {
+      @Override
+      public void meal(long changeId, int id, String category, String name, String[] ingredients) {
+        if (applied.add(changeId)) {
+          meals.accept(id, category, name, ingredients);
+          count[0]++;
+        }
+      }
+
+      @Override
+      public void plan(long changeId, String owner) {
+        if (applied.add(changeId)) {
+          catalog.planChanged(owner, changeId);
+          count[0]++;
+        }
+      }
+    });
+    advance();
+    return count[0];
+  }
+
+  /**
+   * Moves "after" over the applied entries that follow it, and over every run of missing ones that was given up on.
+   */
+  private void advance() {
+    long now = System.nanoTime();
+    TreeMap<Long, Gap> found = new TreeMap<>();
+    long previous = after;
+    for (long id : applied) {
+      if (id > previous + 1) {
+        // part of a known run, some of whose entries showed up since, has been missing as long as the run
+        Map.Entry<Long, Gap> known = gaps.floorEntry(previous + 1);
+        long since = known != null && known.getValue().last > previous ? known.getValue().since : now;
+        found.put(previous + 1, new Gap(id - 1, since));
+      }
+      previous = id;
+    }
+    gaps = found;
+    while (!applied.isEmpty()) {
+      if (applied.first() == after + 1) {
+        after = applied.pollFirst();
+      } else if (now - gaps.get(after + 1).since > gapTimeout) {
+        after = applied.first() - 1;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void pollQuietly() {
+    try {
+      poll();
+    } catch (SQLException | RuntimeException e) {
+      // polled again next time; an uncaught exception would cancel the schedule
+      System.err.println("Unable to read the change log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops polling.
+   */
+  @Override
+  public void close() {
+    timer.shutdownNow();
+  }
+}
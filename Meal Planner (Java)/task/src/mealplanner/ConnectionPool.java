@@ -0,0 +1,204 @@
+package mealplanner;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Bounded pool of JDBC connections.  At most poolSize connections are open at once; callers wait up to the pool
+ * timeout for a free one.  Each pooled connection keeps its own LRU cache of prepared statements, so statements are
+ * prepared once per connection instead of once per use, and are closed by the pool rather than by callers.  Every
+ * connection is instrumented, so its round trips show up in PlannerStats.
+ */
+class ConnectionPool implements AutoCloseable {
+  private final String url;
+  private final String user;
+  private final String password;
+  private final int statementCacheSize;
+  private final long timeoutSeconds;
+  private final Semaphore permits;  // one permit per connection that may be handed out
+  private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<>();
+  private final Set<PooledConnection> open = ConcurrentHashMap.newKeySet();
+  private volatile boolean closed = false;
+
+  /**
+   * @param url                 the JDBC url of the database
+   * @param user                the database user
+   * @param password            the password of the user
+   * @param poolSize            the most connections open at once
+   * @param timeoutSeconds      how long acquire waits for a free connection
+   * @param statementCacheSize  the most prepared statements kept open per connection
+   */
+  ConnectionPool(String url, String user, String password, int poolSize, int timeoutSeconds,
+                 int statementCacheSize) {
+    this.url = url;
+    this.user = user;
+    this.password = password;
+    this.permits = new Semaphore(poolSize, true);
+    this.timeoutSeconds = timeoutSeconds;
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  /**
+   * Takes a connection from the pool, opening one if none is idle.  The connection is in autocommit mode and must be
+   * given back by closing it, best with try-with-resources.
+   * @return              a pooled connection
+   * @throws SQLException if no connection frees up within the timeout or a new one cannot be opened
+   */
+  PooledConnection acquire() throws SQLException {
+    if (closed) {
+      throw new SQLException("The connection pool is closed");
+    }
+    try {
+      if (!permits.tryAcquire(timeoutSeconds, TimeUnit.SECONDS)) {
+        throw new SQLTimeoutException("Timed out waiting for a database connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for a database connection", e);
+    }
+    try {
+      PooledConnection pooled = idle.poll();
+      if (pooled == null) {
+        pooled = new PooledConnection(InstrumentedJdbc.wrap(DriverManager.getConnection(url, user, password)));
+        open.add(pooled);
+      }
+      return pooled;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void release(PooledConnection pooled) {
+    boolean healthy;
+    try {
+      pooled.reset();
+      healthy = !closed;
+    } catch (SQLException e) {
+      healthy = false;
+    }
+    if (healthy) {
+      idle.offer(pooled);
+    } else {
+      open.remove(pooled);
+      pooled.discard();
+    }
+    permits.release();
+  }
+
+  /**
+   * @return  the JDBC url of the database
+   */
+  String getUrl() {
+    return url;
+  }
+
+  /**
+   * @return  the database user
+   */
+  String getUser() {
+    return user;
+  }
+
+  /**
+   * Closes every connection of the pool.  Connections still in use are closed as well.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (PooledConnection pooled : open) {
+      pooled.discard();
+    }
+    open.clear();
+    idle.clear();
+  }
+
+  /**
+   * A connection leased from the pool together with its prepared statement cache.  Closing it returns it to the pool.
+   */
+  class PooledConnection implements AutoCloseable {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private final Set<PreparedStatement> used = Collections.newSetFromMap(new IdentityHashMap<>());  // of this lease
+
+    private PooledConnection(Connection connection) throws SQLException {
+      this.connection = connection;
+      this.connection.setAutoCommit(true);
+      this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+          if (size() > statementCacheSize) {
+            closeQuietly(eldest.getValue());
+            return true;
+          }
+          return false;
+        }
+      };
+    }
+
+    /**
+     * @return  the underlying connection, which must not be closed by the caller
+     */
+    Connection connection() {
+      return connection;
+    }
+
+    /**
+     * Returns the cached prepared statement for the SQL, preparing it on first use.  The statement must not be
+     * closed by the caller; its ResultSets should be.
+     * @param sql           the SQL of the statement
+     * @return              a prepared statement with its parameters cleared
+     * @throws SQLException if the statement cannot be prepared
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement statement = statements.get(sql);
+      if (statement == null || statement.isClosed()) {
+        statement = connection.prepareStatement(sql);
+        statements.put(sql, statement);
+      }
+      used.add(statement);
+      return statement;
+    }
+
+    /**
+     * Rolls back an unfinished transaction and restores autocommit so the next lease starts clean.
+     */
+    private void reset() throws SQLException {
+      for (PreparedStatement statement : used) {
+        statement.clearBatch();
+        statement.clearParameters();
+      }
+      used.clear();
+      if (!connection.getAutoCommit()) {
+        connection.rollback();
+        connection.setAutoCommit(true);
+      }
+    }
+
+    private void discard() {
+      for (PreparedStatement statement : statements.values()) {
+        closeQuietly(statement);
+      }
+      statements.clear();
+      try {
+        connection.close();
+      } catch (SQLException ignored) {
+        // the connection is dropped either way
+      }
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+  private static void closeQuietly(Statement statement) {
+    try {
+      statement.close();
+    } catch (SQLException ignored) {
+      // a statement that fails to close is dropped either way
+    }
+  }
+}
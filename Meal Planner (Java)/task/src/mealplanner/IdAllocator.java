@@ -0,0 +1,71 @@
+package mealplanner;
+
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the ids of one table from a database sequence, a block at a time (hi/lo).  The sequence is created with
+ * INCREMENT BY the block size, so each nextval reserves the ids [value, value + block) for this process alone; the
+ * ids of the block are then handed out by an atomic counter, without a lock or a round trip.  Any number of programs
+ * and threads can insert into the same table without colliding.  Ids left over in a block when the program ends are
+ * never used, so the ids of a table have gaps and only grow.
+ */
+class IdAllocator {
+  private final ConnectionPool pool;
+  private final String nextval;
+  private final int block;
+  private volatile Block current = new Block(0, 0);
+
+  /** The reserved ids [next, limit). */
+  private static class Block {
+    private final AtomicInteger next;
+    private final int limit;
+
+    private Block(int start, int limit) {
+      this.next = new AtomicInteger(start);
+      this.limit = limit;
+    }
+  }
+
+  /**
+   * @param pool      the pool to lease a connection from when a block is used up
+   * @param sequence  the name of the sequence, created with INCREMENT BY block
+   * @param block     the number of ids reserved per round trip, the increment of the sequence
+   */
+  IdAllocator(ConnectionPool pool, String sequence, int block) {
+    this.pool = pool;
+    this.nextval = "SELECT nextval('" + sequence + "')";
+    this.block = block;
+  }
+
+  /**
+   * @return              an id no other caller of this or any other program gets
+   * @throws SQLException if a new block cannot be reserved
+   */
+  int next() throws SQLException {
+    while (true) {
+      Block reserved = current;
+      // the counter may run past the limit while a new block is reserved; those values are never returned
+      int id = reserved.next.getAndIncrement();
+      if (id < reserved.limit) {
+        return id;
+      }
+      reserve(reserved);
+    }
+  }
+
+  /**
+   * Replaces a used up block, unless another thread already has.
+   */
+  private synchronized void reserve(Block used) throws SQLException {
+    if (current != used) {
+      return;
+    }
+    try (ConnectionPool.PooledConnection pooled = pool.acquire();
+         ResultSet valueSet = pooled.prepare(nextval).executeQuery()) {
+      valueSet.next();
+      int start = Math.toIntExact(valueSet.getLong(1));
+      current = new Block(start, start + block);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package mealplanner;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded MealRepository that keeps meals and plans in process memory, for running the program without a Postgres
+ * server (repository=memory).  Nothing survives a restart.
+ */
+class InMemoryMealRepository implements MealRepository {
+  private final TreeMap<Integer, StoredMeal> meals = new TreeMap<>();  // meal_id -> meal
+  private final Map<String, int[][]> plans = new HashMap<>();  // owner -> [day][category] meal_id, -1 if empty
+  private final Map<String, TreeMap<LocalDate, int[]>> calendars = new HashMap<>();  // owner -> date -> meal_ids
+  private final List<Change> changes = new ArrayList<>();  // change id - 1 -> change
+  private final AtomicInteger nextId = new AtomicInteger();  // meal_id
+
+  /** An entry of the change log: a stored meal, or a store of the plans of an owner. */
+  private static class Change {
+    private final int mealId;  // -1 for a plan
+    private final String owner;  // null for a meal
+
+    private Change(int mealId, String owner) {
+      this.mealId = mealId;
+      this.owner = owner;
+    }
+  }
+
+  private static class StoredMeal {
+    private final String category;
+    private final String name;
+    private final String[] ingredients;
+
+    private StoredMeal(String category, String name, String[] ingredients) {
+      this.category = category;
+      this.name = name;
+      this.ingredients = ingredients.clone();
+    }
+  }
+
+  @Override
+  public void createSchema() {
+    // nothing to create
+  }
+
+  @Override
+  public synchronized int loadMeals(MealSink sink) {
+    int rowCount = 0;
+    for (Map.Entry<Integer, StoredMeal> entry : meals.entrySet()) {
+      StoredMeal meal = entry.getValue();
+      sink.accept(entry.getKey(), meal.category, meal.name, meal.ingredients.clone());
+      rowCount += Math.max(1, meal.ingredients.length);
+    }
+    return rowCount;
+  }
+
+  @Override
+  public int nextMealId() {
+    return nextId.getAndIncrement();
+  }
+
+  @Override
+  public synchronized void addMeals(List<Main.Meal> added) {
+    for (Main.Meal meal : added) {
+      meals.put(meal.getId(), new StoredMeal(meal.getCategory(), meal.getName(), meal.getIngredients()));
+      changes.add(new Change(meal.getId(), null));
+    }
+  }
+
+  @Override
+  public synchronized int loadChanges(long after, MealSink sink) {
+    int count = 0;
+    for (int change = (int) after; change < changes.size(); change++) {
+      int mealId = changes.get(change).mealId;
+      if (mealId >= 0) {
+        StoredMeal meal = meals.get(mealId);
+        sink.accept(mealId, meal.category, meal.name, meal.ingredients.clone());
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized int tailChanges(long after, ChangeSink sink) {
+    for (int change = (int) after; change < changes.size(); change++) {
+      Change entry = changes.get(change);
+      if (entry.mealId >= 0) {
+        StoredMeal meal = meals.get(entry.mealId);
+        sink.meal(change + 1, entry.mealId, meal.category, meal.name, meal.ingredients.clone());
+      } else {
+        sink.plan(change + 1, entry.owner);
+      }
+    }
+    return Math.max(0, changes.size() - (int) after);
+  }
+
+  @Override
+  public synchronized long lastChange() {
+    return changes.size();
+  }
+
+  @Override
+  public synchronized int countMeals() {
+    return meals.size();
+  }
+
+  @Override
+  public String source() {
+    return null;
+  }
+
+  @Override
+  public synchronized void storePlan(String owner, WeekPlan week) {
+    int[][] slots = new int[WeekPlan.DAYS.length][WeekPlan.CATEGORIES.length];
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        Main.Meal meal = week.get(day, category);
+        // -1 is an empty slot, skipped by loadPlan like a deleted plan_slots row
+        slots[day][category] = meal == null ? -1 : meal.getId();
+      }
+    }
+    plans.put(owner, slots);
+    changes.add(new Change(-1, owner));
+  }
+
+  @Override
+  public synchronized void storePlans(Map<String, WeekPlan> added) {
+    for (Map.Entry<String, WeekPlan> plan : added.entrySet()) {
+      storePlan(plan.getKey(), plan.getValue());
+    }
+  }
+
+  @Override
+  public synchronized void loadPlan(String owner, SlotSink sink) {
+    int[][] slots = plans.get(owner);
+    if (slots == null) {
+      return;
+    }
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        if (slots[day][category] >= 0 && meals.containsKey(slots[day][category])) {
+          sink.accept(WeekPlan.DAYS[day], WeekPlan.CATEGORIES[category], slots[day][category]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void storeDays(String owner, LocalDate first, Main.Meal[][] days) {
+    TreeMap<LocalDate, int[]> calendar = calendars.computeIfAbsent(owner, key -> new TreeMap<>());
+    for (int day = 0; day < days.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        if (days[day][category] != null) {
+          int[] slots = calendar.computeIfAbsent(first.plusDays(day), key -> {
+            int[] empty = new int[WeekPlan.CATEGORIES.length];
+            Arrays.fill(empty, -1);
+            return empty;
+          });
+          slots[category] = days[day][category].getId();
+        }
+      }
+    }
+    changes.add(new Change(-1, owner));
+  }
+
+  @Override
+  public synchronized void loadDays(String owner, DaySink sink) {
+    for (Map.Entry<LocalDate, int[]> date : calendars.getOrDefault(owner, new TreeMap<>()).entrySet()) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        int mealId = date.getValue()[category];
+        if (mealId >= 0 && meals.containsKey(mealId)) {
+          sink.accept(date.getKey(), WeekPlan.CATEGORIES[category], mealId);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    // nothing to release
+  }
+}
@@ -0,0 +1,152 @@
+package mealplanner;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact storage of the ingredients of every meal in the catalog.  Each distinct ingredient name is kept once in a
+ * dictionary and numbered with an int id; the ingredient lists of the meals are stored back to back as ids in one
+ * flat int array, with a second int array of offsets marking where each meal's list starts (compressed sparse rows).
+ * A meal holds only its row number, so a catalog of millions of meals costs two ints per meal plus one int per
+ * ingredient, instead of a String array per meal and a String per ingredient.
+ * Rows are appended under the table's lock and never change; readers take no lock.  A row is handed out only after
+ * its ids are written, and the arrays are replaced by grown copies, so a reader that was given a row number always
+ * finds it complete.
+ */
+class IngredientTable {
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();  // ingredient -> id
+  private volatile String[] names = new String[256];  // id -> ingredient
+  private volatile int[] offsets = new int[1024];  // row -> start of its ids in refs, offsets[row + 1] is the end
+  private volatile int[] refs = new int[4096];  // the ingredient ids of all rows back to back
+  private int rows = 0;  // number of appended rows, guarded by this
+
+  /**
+   * Stores the ingredient list of one meal, adding names not seen before to the dictionary.
+   * @param ingredients  the ingredients of the meal, in order
+   * @return             the row of the list
+   */
+  synchronized int append(String[] ingredients) {
+    int start = offsets[rows];
+    int end = start + ingredients.length;
+    int[] ref = refs;
+    if (end > ref.length) {
+      ref = Arrays.copyOf(ref, Math.max(end, ref.length * 2));
+    }
+    for (int i = 0; i < ingredients.length; i++) {
+      ref[start + i] = intern(ingredients[i]);
+    }
+    refs = ref;
+    int[] offset = offsets;
+    if (rows + 2 > offset.length) {
+      offset = Arrays.copyOf(offset, offset.length * 2);
+    }
+    offset[rows + 1] = end;
+    offsets = offset;
+    return rows++;
+  }
+
+  /**
+   * Fills the empty table in one step, as read from a CatalogSnapshot.
+   * @param dictionary  the ingredient names by id
+   * @param offsets     row -> start of its ids in references, with one entry more than there are rows
+   * @param references  the ingredient ids of all rows back to back
+   * @throws IllegalStateException if the table is not empty
+   */
+  synchronized void load(String[] dictionary, int[] offsets, int[] references) {
+    if (rows > 0 || !ids.isEmpty()) {
+      throw new IllegalStateException("The ingredient table is not empty");
+    }
+    String[] name = Arrays.copyOf(dictionary, Math.max(names.length, dictionary.length));
+    for (int id = 0; id < dictionary.length; id++) {
+      ids.put(dictionary[id], id);
+    }
+    names = name;
+    refs = references;
+    this.offsets = offsets;
+    rows = offsets.length - 1;
+  }
+
+  private int intern(String ingredient) {
+    Integer id = ids.get(ingredient);
+    if (id == null) {
+      id = ids.size();
+      String[] name = names;
+      if (id == name.length) {
+        name = Arrays.copyOf(name, id * 2);
+      }
+      name[id] = ingredient;
+      names = name;
+      ids.put(ingredient, id);
+    }
+    return id;
+  }
+
+  /**
+   * @param row  a row returned by append
+   * @return     the number of ingredients of the row
+   */
+  int count(int row) {
+    int[] offset = offsets;
+    return offset[row + 1] - offset[row];
+  }
+
+  /**
+   * @param row    a row returned by append
+   * @param index  the position of the ingredient in the row, below count(row)
+   * @return       the dictionary id of the ingredient
+   */
+  int id(int row, int index) {
+    return refs[offsets[row] + index];
+  }
+
+  /**
+   * @param ingredient  an ingredient name
+   * @return            the dictionary id of the name, or -1 if no stored meal uses it
+   */
+  int find(String ingredient) {
+    Integer id = ids.get(ingredient);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * @param id  a dictionary id
+   * @return    the ingredient name of the id
+   */
+  String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * @return  the number of distinct ingredient names
+   */
+  int distinct() {
+    return ids.size();
+  }
+
+  /**
+   * @return  the number of stored rows
+   */
+  synchronized int rows() {
+    return rows;
+  }
+
+  /**
+   * @return  the number of ingredient ids stored over all rows
+   */
+  synchronized int references() {
+    return offsets[rows];
+  }
+
+  /**
+   * Estimates the heap held by the table with compressed references: the three arrays at their current capacity, a
+   * String per name and a dictionary entry per name.
+   * @return  the estimated size in bytes
+   */
+  synchronized long bytes() {
+    long size = 4L * (offsets.length + refs.length + names.length);
+    for (String name : ids.keySet()) {
+      size += 56 + name.length() + 48;  // String and byte[] headers and bytes, map node and boxed id
+    }
+    return size;
+  }
+}
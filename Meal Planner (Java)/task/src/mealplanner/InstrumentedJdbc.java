@@ -0,0 +1,72 @@
+package mealplanner;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.Set;
+
+/**
+ * Wraps JDBC connections so that every round trip is recorded in PlannerStats: statement executions and batches
+ * under their SQL text, commits and rollbacks under COMMIT and ROLLBACK.  Statements created from a wrapped
+ * connection are wrapped as well.  All other calls pass straight through.
+ */
+final class InstrumentedJdbc {
+  private final static Set<String> EXECUTIONS = Set.of("execute", "executeQuery", "executeUpdate",
+          "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+
+  private InstrumentedJdbc() {
+  }
+
+  /**
+   * @param connection  the connection to instrument
+   * @return            a connection that records its round trips
+   */
+  static Connection wrap(Connection connection) {
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "commit", "rollback" -> {
+                  long start = System.nanoTime();
+                  try {
+                    return invoke(connection, method, args);
+                  } finally {
+                    PlannerStats.query(method.getName().toUpperCase(), start);
+                  }
+                }
+                case "createStatement" -> {
+                  return wrap((Statement) invoke(connection, method, args), Statement.class, null);
+                }
+                case "prepareStatement" -> {
+                  return wrap((Statement) invoke(connection, method, args), PreparedStatement.class,
+                          (String) args[0]);
+                }
+                default -> {
+                  return invoke(connection, method, args);
+                }
+              }
+            });
+  }
+
+  private static Statement wrap(Statement statement, Class<? extends Statement> type, String sql) {
+    return (Statement) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{type},
+            (proxy, method, args) -> {
+              if (!EXECUTIONS.contains(method.getName())) {
+                return invoke(statement, method, args);
+              }
+              long start = System.nanoTime();
+              try {
+                return invoke(statement, method, args);
+              } finally {
+                String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                PlannerStats.query(text != null ? text : "batch", start);
+              }
+            });
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+}
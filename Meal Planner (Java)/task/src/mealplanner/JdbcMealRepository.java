@@ -0,0 +1,536 @@
+package mealplanner;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MealRepository backed by a SQL (Postgres) database.  Every method leases a connection from the ConnectionPool for
+ * the duration of one call and uses the pool's cached prepared statements, so concurrent planners never share a
+ * connection and no statement is left open on error paths.
+ */
+class JdbcMealRepository implements MealRepository {
+  private final static String MEAL_INSERT = "INSERT INTO meals (meal_id, category, meal) VALUES (?, ?, ?)";
+  private final static String INGREDIENT_INSERT =
+          "INSERT INTO meal_ingredients (ingredient_id, meal_id, name_id) VALUES (?, ?, ?)";
+  private final static String NAME_INSERT = "INSERT INTO ingredient_names (name) VALUES (?) " +
+          "ON CONFLICT (name) DO NOTHING";
+  private final static String NAME_FIND = "SELECT name_id FROM ingredient_names WHERE name = ?";
+  private final static int MEAL_ID_BLOCK = 100;  // the INCREMENT BY of the sequences, see SchemaMigrations
+  private final static int INGREDIENT_ID_BLOCK = 1000;
+  private final static String CHANGE_INSERT = "INSERT INTO meal_changes (meal_id) VALUES (?)";
+  private final static String PLAN_CHANGE_INSERT = "INSERT INTO meal_changes (owner) VALUES (?)";
+  private final static String MEALS_FIND = "SELECT meals.meal_id, category, meal, name_id " +
+          "FROM meals " +
+          "LEFT JOIN meal_ingredients ON meal_ingredients.meal_id = meals.meal_id " +
+          "ORDER BY meals.meal_id, ingredient_id";
+  private final static String CHANGES_FIND = "SELECT meals.meal_id, category, meal, name_id " +
+          "FROM meal_changes " +
+          "JOIN meals ON meals.meal_id = meal_changes.meal_id " +
+          "LEFT JOIN meal_ingredients ON meal_ingredients.meal_id = meals.meal_id " +
+          "WHERE change_id > ? " +
+          "ORDER BY change_id, ingredient_id";
+  private final static String TAIL_FIND = "SELECT change_id, owner, meals.meal_id, category, meal, name_id " +
+          "FROM meal_changes " +
+          "LEFT JOIN meals ON meals.meal_id = meal_changes.meal_id " +
+          "LEFT JOIN meal_ingredients ON meal_ingredients.meal_id = meals.meal_id " +
+          "WHERE change_id > ? " +
+          "ORDER BY change_id, ingredient_id";
+  private final static String PLAN_UPSERT = "INSERT INTO plans (owner, version) VALUES (?, 1) " +
+          "ON CONFLICT (owner) DO UPDATE SET version = plans.version + 1 " +
+          "RETURNING plan_id";
+  private final static String SLOT_UPSERT = "INSERT INTO plan_slots (plan_id, day, category, meal_id) " +
+          "VALUES (?, ?, ?, ?) " +
+          "ON CONFLICT (plan_id, day, category) DO UPDATE SET meal_id = EXCLUDED.meal_id";
+  private final static String SLOT_DELETE = "DELETE FROM plan_slots WHERE plan_id = ? AND day = ? AND category = ?";
+  private final static String PLANS_UPSERT = "INSERT INTO plans (owner, version) VALUES (?, 1) " +
+          "ON CONFLICT (owner) DO UPDATE SET version = plans.version + 1";
+  private final static String PLANS_FIND = "SELECT owner, plan_id FROM plans WHERE owner = ANY (?)";
+  private final static int PLAN_BATCH = 500;  // owners per transaction of storePlans
+  private final static String DAY_UPSERT = "INSERT INTO calendar_slots (owner, plan_date, category, meal_id) " +
+          "VALUES (?, ?, ?, ?) " +
+          "ON CONFLICT (owner, plan_date, category) DO UPDATE SET meal_id = EXCLUDED.meal_id";
+  // a range scan of the primary key, which orders the slots of an owner by date
+  private final static String DAYS_FIND = "SELECT plan_date, category, meal_id FROM calendar_slots " +
+          "WHERE owner = ? " +
+          "ORDER BY plan_date";
+  private final static String PLAN_FIND = "SELECT day, plan_slots.category, plan_slots.meal_id " +
+          "FROM plans " +
+          "JOIN plan_slots ON plan_slots.plan_id = plans.plan_id " +
+          "JOIN meals ON meals.meal_id = plan_slots.meal_id " +
+          "WHERE owner = ?";
+
+  private final ConnectionPool pool;
+  private final int fetchSize;
+  private final Map<String, Integer> nameIds = new ConcurrentHashMap<>();  // committed ingredient_names rows
+  private final Map<Integer, String> names = new ConcurrentHashMap<>();  // the same rows by name_id
+  private final IdAllocator mealIds;
+  private final IdAllocator ingredientIds;
+
+  /**
+   * @param pool        the pool to lease connections from, closed with the repository
+   * @param fetchSize   the number of rows per round trip when loading the meals
+   */
+  JdbcMealRepository(ConnectionPool pool, int fetchSize) {
+    this.pool = pool;
+    this.fetchSize = fetchSize;
+    this.mealIds = new IdAllocator(pool, "meal_ids", MEAL_ID_BLOCK);
+    this.ingredientIds = new IdAllocator(pool, "ingredient_ids", INGREDIENT_ID_BLOCK);
+  }
+
+  /**
+   * Applies the SchemaMigrations the database has not seen yet.  Existing data is upgraded in place, never dropped.
+   */
+  @Override
+  public void createSchema() throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      int applied = SchemaMigrations.migrate(pooled.connection());
+      if (applied > 0) {
+        System.err.println("Upgraded the database to schema version " + SchemaMigrations.latest() + ".");
+      }
+    }
+  }
+
+  /**
+   * Reads the ingredient dictionary first, then streams a single meals/meal_ingredients join on integer ids ordered by
+   * meal through a cursor (fetchSize rows per round trip) and groups the rows into meals as they arrive, with no cap
+   * on the number of ingredients per meal.  Each ingredient name crosses the wire and lives in memory only once.
+   */
+  @Override
+  public int loadMeals(MealSink sink) throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      // the Postgres driver only honours the fetch size (streams) outside of autocommit
+      con.setAutoCommit(false);
+      int rowCount;
+      try (Statement loadStatement = con.createStatement()) {
+        loadStatement.setFetchSize(fetchSize);
+        try (ResultSet loadSet = loadStatement.executeQuery(MEALS_FIND)) {
+          rowCount = readMeals(con, loadSet, sink);
+        }
+      }
+      con.commit();
+      return rowCount;
+    }
+  }
+
+  /**
+   * Streams the meals of the change log entries after "after" the same way as loadMeals, in change order.
+   */
+  @Override
+  public int loadChanges(long after, MealSink sink) throws SQLException {
+    int[] mealCount = {0};
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      PreparedStatement changeStatement = pooled.prepare(CHANGES_FIND);
+      changeStatement.setFetchSize(fetchSize);
+      changeStatement.setLong(1, after);
+      try (ResultSet changeSet = changeStatement.executeQuery()) {
+        readMeals(con, changeSet, (id, category, name, ingredients) -> {
+          mealCount[0]++;
+          sink.accept(id, category, name, ingredients);
+        });
+      }
+      con.commit();
+    }
+    return mealCount[0];
+  }
+
+  /**
+   * Reads the entries after "after" with the rows of their meals in one query, grouping the rows of an entry like
+   * loadMeals.  Ingredient names come from the cached dictionary, which is only read again for a name it lacks, so
+   * an empty poll costs one round trip.
+   */
+  @Override
+  public int tailChanges(long after, ChangeSink sink) throws SQLException {
+    int entries = 0;
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      PreparedStatement changeStatement = pooled.prepare(TAIL_FIND);
+      changeStatement.setFetchSize(fetchSize);
+      changeStatement.setLong(1, after);
+      try (ResultSet changeSet = changeStatement.executeQuery()) {
+        long changeId = 0;
+        String owner = null;
+        int mealId = 0;
+        String category = null;
+        String name = null;
+        List<String> ingredients = new ArrayList<>();
+        while (changeSet.next()) {
+          // a new change_id closes the previous entry
+          if (entries == 0 || changeSet.getLong("change_id") != changeId) {
+            if (entries > 0) {
+              sendChange(sink, changeId, owner, mealId, category, name, ingredients);
+            }
+            entries++;
+            changeId = changeSet.getLong("change_id");
+            owner = changeSet.getString("owner");
+            mealId = changeSet.getInt("meal_id");
+            category = changeSet.getString("category");
+            name = changeSet.getString("meal");
+            ingredients.clear();
+          }
+          int nameId = changeSet.getInt("name_id");
+          if (!changeSet.wasNull()) {
+            ingredients.add(name(con, nameId));
+          }
+        }
+        if (entries > 0) {
+          sendChange(sink, changeId, owner, mealId, category, name, ingredients);
+        }
+      }
+      con.commit();
+    }
+    return entries;
+  }
+
+  private static void sendChange(ChangeSink sink, long changeId, String owner, int mealId, String category,
+                                 String name, List<String> ingredients) {
+    if (category == null) {
+      sink.plan(changeId, owner);
+    } else {
+      sink.meal(changeId, mealId, category, name, ingredients.toArray(new String[0]));
+    }
+  }
+
+  @Override
+  public long lastChange() throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire();
+         ResultSet changeSet = pooled.prepare("SELECT MAX(change_id) FROM meal_changes").executeQuery()) {
+      changeSet.next();
+      return changeSet.getLong(1);
+    }
+  }
+
+  @Override
+  public int countMeals() throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire();
+         ResultSet countSet = pooled.prepare("SELECT COUNT(*) FROM meals").executeQuery()) {
+      countSet.next();
+      return countSet.getInt(1);
+    }
+  }
+
+  @Override
+  public String source() {
+    return pool.getUser() + "@" + pool.getUrl();
+  }
+
+  /**
+   * Groups the rows of a meal query - meal_id, category, meal and name_id, one row per ingredient with the rows of a
+   * meal next to each other - into meals for the sink.
+   * @return  the number of rows read
+   */
+  private int readMeals(Connection con, ResultSet loadSet, MealSink sink) throws SQLException {
+    int rowCount = 0;
+    int currentId = 0;
+    String category = null;
+    String name = null;
+    List<String> ingredients = new ArrayList<>();
+    while (loadSet.next()) {
+      int mealid = loadSet.getInt("meal_id");
+      // a new meal_id closes the previous meal
+      if (rowCount == 0 || mealid != currentId) {
+        if (rowCount > 0) {
+          sink.accept(currentId, category, name, ingredients.toArray(new String[0]));
+        }
+        currentId = mealid;
+        category = loadSet.getString("category");
+        name = loadSet.getString("meal");
+        ingredients.clear();
+      }
+      rowCount++;
+      int nameId = loadSet.getInt("name_id");
+      if (!loadSet.wasNull()) {
+        ingredients.add(name(con, nameId));
+      }
+    }
+    if (rowCount > 0) {
+      sink.accept(currentId, category, name, ingredients.toArray(new String[0]));
+    }
+    return rowCount;
+  }
+
+  /**
+   * @return  the ingredient of a name_id, reading the whole dictionary the first time and again for a name committed
+   *          by another program since
+   */
+  private String name(Connection con, int nameId) throws SQLException {
+    String name = names.get(nameId);
+    if (name == null) {
+      loadNames(con);
+      name = names.get(nameId);
+    }
+    return name;
+  }
+
+  private void loadNames(Connection con) throws SQLException {
+    try (Statement nameStatement = con.createStatement()) {
+      nameStatement.setFetchSize(fetchSize);
+      try (ResultSet nameSet = nameStatement.executeQuery("SELECT name_id, name FROM ingredient_names")) {
+        while (nameSet.next()) {
+          int nameId = nameSet.getInt("name_id");
+          String name = nameSet.getString("name");
+          names.put(nameId, name);
+          nameIds.put(name, nameId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes the id from a block of the meal_ids sequence, so only one in MEAL_ID_BLOCK calls makes a round trip.
+   */
+  @Override
+  public int nextMealId() throws SQLException {
+    return mealIds.next();
+  }
+
+  /**
+   * Sends the meal rows, the ingredient rows and the change log rows as one batch per table inside a single
+   * transaction.  Ingredient names
+   * not seen before are added to the dictionary in the same transaction, and their ids are only remembered once it
+   * commits.  The ingredient_ids are taken from blocks of the ingredient_ids sequence before the transaction starts.
+   */
+  @Override
+  public void addMeals(List<Main.Meal> meals) throws SQLException {
+    if (meals.isEmpty()) {
+      return;
+    }
+    int ingredientCount = 0;
+    for (Main.Meal meal : meals) {
+      ingredientCount += meal.getIngredientCount();
+    }
+    int[] rowIds = new int[ingredientCount];  // ingredient_id of every meal_ingredients row
+    for (int i = 0; i < rowIds.length; i++) {
+      rowIds[i] = ingredientIds.next();
+    }
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      PreparedStatement mealStatement = pooled.prepare(MEAL_INSERT);
+      PreparedStatement ingredientStatement = pooled.prepare(INGREDIENT_INSERT);
+      PreparedStatement changeStatement = pooled.prepare(CHANGE_INSERT);
+      Map<String, Integer> newIds = nameIds(pooled, meals);
+      int row = 0;
+      for (Main.Meal meal : meals) {
+        mealStatement.setInt(1, meal.getId());
+        mealStatement.setString(2, meal.getCategory());
+        mealStatement.setString(3, meal.getName());
+        mealStatement.addBatch();
+        changeStatement.setInt(1, meal.getId());
+        changeStatement.addBatch();
+        for (int i = 0; i < meal.getIngredientCount(); i++) {
+          String ingredient = meal.getIngredient(i);
+          ingredientStatement.setInt(1, rowIds[row++]);
+          ingredientStatement.setInt(2, meal.getId());
+          ingredientStatement.setInt(3, nameIds.getOrDefault(ingredient, newIds.get(ingredient)));
+          ingredientStatement.addBatch();
+        }
+      }
+      mealStatement.executeBatch();
+      ingredientStatement.executeBatch();
+      changeStatement.executeBatch();
+      con.commit();
+      nameIds.putAll(newIds);
+      for (Map.Entry<String, Integer> newId : newIds.entrySet()) {
+        names.put(newId.getValue(), newId.getKey());
+      }
+    }
+  }
+
+  /**
+   * Inserts the ingredient names of the meals that are missing from the dictionary, on the connection's open
+   * transaction, and looks up their ids.  Names another program inserted first are simply looked up.
+   * @return  the name_id of every name that was not known yet
+   */
+  private Map<String, Integer> nameIds(ConnectionPool.PooledConnection pooled, List<Main.Meal> meals)
+          throws SQLException {
+    Set<String> missing = new LinkedHashSet<>();
+    for (Main.Meal meal : meals) {
+      for (int i = 0; i < meal.getIngredientCount(); i++) {
+        if (!nameIds.containsKey(meal.getIngredient(i))) {
+          missing.add(meal.getIngredient(i));
+        }
+      }
+    }
+    Map<String, Integer> ids = new HashMap<>();
+    if (missing.isEmpty()) {
+      return ids;
+    }
+    PreparedStatement nameStatement = pooled.prepare(NAME_INSERT);
+    for (String name : missing) {
+      nameStatement.setString(1, name);
+      nameStatement.addBatch();
+    }
+    nameStatement.executeBatch();
+    PreparedStatement findStatement = pooled.prepare(NAME_FIND);
+    for (String name : missing) {
+      findStatement.setString(1, name);
+      try (ResultSet nameSet = findStatement.executeQuery()) {
+        nameSet.next();
+        ids.put(name, nameSet.getInt("name_id"));
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Upserts the "plans" row of the owner, raising its version, followed by a batch of slot upserts, a batch of
+   * deletes of the empty slots and the change log entry.  Only the rows of this owner are locked, so other sessions
+   * can store their plans at the same time.
+   */
+  @Override
+  public void storePlan(String owner, WeekPlan week) throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      PreparedStatement planStatement = pooled.prepare(PLAN_UPSERT);
+      planStatement.setString(1, owner);
+      int planId;
+      try (ResultSet planSet = planStatement.executeQuery()) {
+        planSet.next();
+        planId = planSet.getInt("plan_id");
+      }
+      PreparedStatement slotStatement = pooled.prepare(SLOT_UPSERT);
+      PreparedStatement clearStatement = pooled.prepare(SLOT_DELETE);
+      addSlots(slotStatement, clearStatement, planId, week);
+      slotStatement.executeBatch();
+      clearStatement.executeBatch();
+      PreparedStatement changeStatement = pooled.prepare(PLAN_CHANGE_INSERT);
+      changeStatement.setString(1, owner);
+      changeStatement.executeUpdate();
+      con.commit();
+    }
+  }
+
+  /**
+   * Stores PLAN_BATCH owners per transaction in five round trips: a batch of plan upserts, one query of their
+   * plan_ids, a batch of the slot upserts of all of them, a batch of the deletes of their empty slots and a batch of
+   * their change log entries.
+   */
+  @Override
+  public void storePlans(Map<String, WeekPlan> plans) throws SQLException {
+    List<String> owners = new ArrayList<>(plans.keySet());
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      for (int from = 0; from < owners.size(); from += PLAN_BATCH) {
+        List<String> batch = owners.subList(from, Math.min(owners.size(), from + PLAN_BATCH));
+        PreparedStatement planStatement = pooled.prepare(PLANS_UPSERT);
+        PreparedStatement changeStatement = pooled.prepare(PLAN_CHANGE_INSERT);
+        for (String owner : batch) {
+          planStatement.setString(1, owner);
+          planStatement.addBatch();
+          changeStatement.setString(1, owner);
+          changeStatement.addBatch();
+        }
+        planStatement.executeBatch();
+        PreparedStatement findStatement = pooled.prepare(PLANS_FIND);
+        findStatement.setArray(1, con.createArrayOf("varchar", batch.toArray()));
+        PreparedStatement slotStatement = pooled.prepare(SLOT_UPSERT);
+        PreparedStatement clearStatement = pooled.prepare(SLOT_DELETE);
+        try (ResultSet planSet = findStatement.executeQuery()) {
+          while (planSet.next()) {
+            addSlots(slotStatement, clearStatement, planSet.getInt("plan_id"),
+                    plans.get(planSet.getString("owner")));
+          }
+        }
+        slotStatement.executeBatch();
+        clearStatement.executeBatch();
+        changeStatement.executeBatch();
+        con.commit();
+      }
+    }
+  }
+
+  /**
+   * Adds the upserts of the planned slots of a plan to the batch of the slot statement, and the deletes of its empty
+   * slots to the batch of the clear statement, so that a cleared slot does not keep the meal stored before.
+   */
+  private static void addSlots(PreparedStatement slotStatement, PreparedStatement clearStatement, int planId,
+                               WeekPlan week) throws SQLException {
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        Main.Meal meal = week.get(day, category);
+        if (meal != null) {
+          slotStatement.setInt(1, planId);
+          slotStatement.setString(2, WeekPlan.DAYS[day]);
+          slotStatement.setString(3, WeekPlan.CATEGORIES[category]);
+          slotStatement.setInt(4, meal.getId());
+          slotStatement.addBatch();
+        } else {
+          clearStatement.setInt(1, planId);
+          clearStatement.setString(2, WeekPlan.DAYS[day]);
+          clearStatement.setString(3, WeekPlan.CATEGORIES[category]);
+          clearStatement.addBatch();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void loadPlan(String owner, SlotSink sink) throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      PreparedStatement planStatement = pooled.prepare(PLAN_FIND);
+      planStatement.setString(1, owner);
+      try (ResultSet planSet = planStatement.executeQuery()) {
+        while (planSet.next()) {
+          sink.accept(planSet.getString("day"), planSet.getString("category"), planSet.getInt("meal_id"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Upserts the planned slots of the days in one batch, with the change log entry, locking only the rows of this
+   * owner.
+   */
+  @Override
+  public void storeDays(String owner, LocalDate first, Main.Meal[][] days) throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      Connection con = pooled.connection();
+      con.setAutoCommit(false);
+      PreparedStatement dayStatement = pooled.prepare(DAY_UPSERT);
+      for (int day = 0; day < days.length; day++) {
+        for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+          Main.Meal meal = days[day][category];
+          if (meal != null) {
+            dayStatement.setString(1, owner);
+            dayStatement.setObject(2, first.plusDays(day));
+            dayStatement.setString(3, WeekPlan.CATEGORIES[category]);
+            dayStatement.setInt(4, meal.getId());
+            dayStatement.addBatch();
+          }
+        }
+      }
+      dayStatement.executeBatch();
+      PreparedStatement changeStatement = pooled.prepare(PLAN_CHANGE_INSERT);
+      changeStatement.setString(1, owner);
+      changeStatement.executeUpdate();
+      con.commit();
+    }
+  }
+
+  @Override
+  public void loadDays(String owner, DaySink sink) throws SQLException {
+    try (ConnectionPool.PooledConnection pooled = pool.acquire()) {
+      PreparedStatement dayStatement = pooled.prepare(DAYS_FIND);
+      dayStatement.setString(1, owner);
+      try (ResultSet daySet = dayStatement.executeQuery()) {
+        while (daySet.next()) {
+          sink.accept(daySet.getObject("plan_date", LocalDate.class), daySet.getString("category"),
+                  daySet.getInt("meal_id"));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    pool.close();
+  }
+}
@@ -3,11 +3,16 @@ import java.io.*;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.sql.*;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.*;
 
 /**
  * Meal Planner Program Summary
  * Purpose: This program builds a weekly meal plan via: validating and saving meals with ingredients to separate SQL
- * tables, creating a weekly meal plan in a third table, and using a query to sum the ingredients needed for the week,
+ * tables, storing a weekly meal plan per owner in plan tables, and summing the ingredients needed for the week,
  * exporting them to a text file.
  * 
  * Design:  This program has no public facing interfaces with the outputs being printing lines to the terminal or
@@ -15,7 +20,9 @@ import java.sql.*;
  * stored Meal class objects with a SQL (Postgres) database - loading all SQL data into class objects on startup.
  * Will create new database schema if the database is not present on startup. Both statements and prepared statements
  * were used for practice - statements for table generation with no inputs and single run cycles.  Prepared statements
- * were used in combination with user input to prevent SQL injection and for efficiency.
+ * were used in combination with user input to prevent SQL injection and for efficiency.  All storage goes through the
+ * MealRepository interface - a pooled JDBC implementation or an in-memory one, chosen by PlannerConfig.  A binary
+ * CatalogSnapshot of the loaded catalog lets later startups skip reading every row.
  *
  * Personal: This is my second program created in Java while independently learning the language with an
  * intent to learn SQL, Classes, Methods, Access Modifiers, Checked Exceptions, File Handling and Javadocs.
@@ -28,294 +35,451 @@ import java.sql.*;
 
 public class Main {
   private final static Scanner scanner = new Scanner(System.in); // Do not change this line
-  private int Mealid = 0;  // serial counter for the Mealid
-  private int Ingredientid = 0;   // serial counter for the Ingredientid
-  private int Planid = 0;  // serial counter for the Planid
-  private boolean PlanCreated = false;
-  private static Connection con = null;  // holds the SQL connection for use across methods
-  private ArrayList<Meal> Meals = new ArrayList<>();  // stores Meal objects
-
-  // class meal for getting and storing meal information
-  class Meal {
-    private String category;
-    private String name;
-    private String[] ingredients;
+  private WeekPlan Plan = null;  // in-memory copy of the stored plan of Owner, loaded on first use
+  private MealCalendar Calendar = null;  // in-memory copy of the stored dated plans of Owner, loaded on first use
+  private final MealRepository Repository;  // storage of meals and plans, shared by all sessions
+  private final MealCatalog Meals;  // indexes Meal objects by category and name, shared by all sessions
+  private final String Owner;  // owner of the stored plan
+  private final int ImportChunk;  // meals per commit when importing
+  private final String Snapshot;  // catalog snapshot file, empty if disabled
+  private final boolean StatsGc;  // whether the stats command forces a full collection
+  private final Path FileRoot;  // directory the file commands are confined to, null to allow any file
+  private final static int SNAPSHOT_REPLAY = 1000;  // replayed changes that make loadDatabase rewrite the snapshot
+  private long LoadedChange = 0;  // newest change log entry included in the catalog by loadDatabase
+  private long PlanChange = 0;  // newest change log entry of the plans of Owner seen when Plan and Calendar were read
+  private final Scanner in;  // input of this session
+  private final PrintStream out;  // output of this session
+  private long InputNanos = 0;  // time this session spent waiting in readLine
+  private long Commands = 0;  // menu commands this session has run
+  private PrintWriter Recording = null;  // receives every input line of the session, null if not recording
+  private final static Set<String> TIMED_COMMANDS = Set.of("add", "show", "plan", "print", "save", "import",
+          "search", "export", "autoplan", "schedule", "calendar", "shop");
+  private final static int SCHEDULE_DAYS = 366;  // most days planned by one schedule command
+  private final static int SEARCH_RESULTS = 20;  // meals listed per search
+  private final static int AUTOPLAN_CHUNK = 5000;  // households generated and stored at a time by autoplan
+  // the validation rules, compiled once rather than by every Pattern.matches call
+  private final static Pattern NUMBER = Pattern.compile("\\d{1,10}");
+  private final static Pattern NAME = Pattern.compile("[a-zA-Z\\s]+");
+  private final static Pattern INGREDIENTS = Pattern.compile("[a-zA-Z,\\s]+");
+  private final static int NAME_LENGTH = 30;  // the VARCHAR(30) of meals.meal and ingredient_names.name
+  // buffers and encoder of the shopping list files, reused by every save and export of a thread
+  private final static ThreadLocal<ShoppingListExport> Exports = ThreadLocal.withInitial(ShoppingListExport::new);
+  // the threads of the export command, shared by every export of every session so that their Exports are reused
+  private final static ExecutorService Exporters = Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "export");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Creates a planner session.  The console runs a single session over System.in and System.out, the server runs
+   * one per connection; all of them share the repository and the catalog.
+   * @param repository  the storage of meals and plans
+   * @param config      the settings of the program
+   * @param catalog     the in-memory catalog of all meals
+   * @param in          the input of the session
+   * @param out         the output of the session
+   * @param owner       the owner of the plan of the session
+   */
+  Main(MealRepository repository, PlannerConfig config, MealCatalog catalog, Scanner in, PrintStream out,
+       String owner) {
+    this(repository, config, catalog, in, out, owner, null);
+  }
+
+  /**
+   * Creates a planner session whose import, save and export commands only read and write the files of a directory,
+   * for sessions of users who must not reach the other files of the machine.
+   * @param repository  the storage of meals and plans
+   * @param config      the settings of the program
+   * @param catalog     the in-memory catalog of all meals
+   * @param in          the input of the session
+   * @param out         the output of the session
+   * @param owner       the owner of the plan of the session
+   * @param fileRoot    the absolute, normalized directory the filenames are resolved against, null to allow any file
+   */
+  Main(MealRepository repository, PlannerConfig config, MealCatalog catalog, Scanner in, PrintStream out,
+       String owner, Path fileRoot) {
+    this.Repository = repository;
+    this.Meals = catalog;
+    this.Owner = owner;
+    this.ImportChunk = config.getInt("importChunk");
+    this.Snapshot = config.get("snapshot");
+    this.StatsGc = Boolean.parseBoolean(config.get("stats.gc"));
+    this.FileRoot = fileRoot;
+    this.in = in;
+    this.out = out;
+  }
+
+  // class meal for getting and storing meal information; static, so that a meal holds on to its catalog only and
+  // not to the session that created it
+  static class Meal {
+    private final MealCatalog catalog;  // whose IngredientTable holds the ingredients
+    private final int id;
+    private final String category;
+    private final String name;
+    private final int ingredients;  // row of the ingredient list in the IngredientTable of the catalog
 
     /**
-     * Class constructor that creates Meal objects from SQL data when the program starts
+     * Class constructor that creates Meal objects from stored, imported or typed in data, or for the tests
+     * @param catalog     the catalog the meal is for, whose IngredientTable receives the ingredients
+     * @param id          the meal_id of the meal
      * @param category    a String matching "breakfast", "lunch", or "dinner"
      * @param name        a String of the given name of the meal
      * @param ingredients a String list of ingredients used to make each meal
      */
-    private Meal(String category, String name, String[] ingredients) {
-      this.category = category;
+    Meal(MealCatalog catalog, int id, String category, String name, String[] ingredients) {
+      this.catalog = catalog;
+      this.id = id;
+      this.category = canonical(category);
+      this.name = name;
+      this.ingredients = catalog.getIngredients().append(ingredients);
+    }
+
+    /**
+     * Class constructor for meals read from a CatalogSnapshot, whose ingredients are already in the IngredientTable
+     * @param catalog     the catalog the meal is for
+     * @param id          the meal_id of the meal
+     * @param category    a String matching "breakfast", "lunch", or "dinner"
+     * @param name        a String of the given name of the meal
+     * @param ingredients the row of the ingredient list in the IngredientTable
+     */
+    private Meal(MealCatalog catalog, int id, String category, String name, int ingredients) {
+      this.catalog = catalog;
+      this.id = id;
+      this.category = canonical(category);
       this.name = name;
       this.ingredients = ingredients;
-      Mealid++;
-      Ingredientid += ingredients.length;
     }
 
     /**
-     * Class constructor that allows the user to add new meals via setter methods that validate text entries.
-     * @throws SQLException  displays the stack trace of the error
+     * Validation rule of setCategory
+     * @param option  the text to check
+     * @return        true if the text is "breakfast", "lunch", or "dinner"
      */
-    private Meal() throws SQLException {
-      try {
-        System.out.println("Which meal do you want to add (breakfast, lunch, dinner)?");
-        this.category = setCategory();
-        System.out.println("Input the meal's name:");
-        this.name = setName();
-        System.out.println("Input the ingredients:");
-        this.ingredients = setIngredients();
-        this.addToDatabase();
-      } catch (SQLException e) {
-        System.out.println("A SQL error has occurred during Meal creation.");
-      }
+    private static boolean isCategory(String option) {
+      return WeekPlan.indexOf(option, WeekPlan.CATEGORIES) >= 0;
+    }
 
-      System.out.println("The meal has been added!");
+    /**
+     * Shares one String per category between all meals, instead of one per loaded row.
+     * @param category  the category of a meal
+     * @return          the equal entry of WeekPlan.CATEGORIES, or the category itself if there is none
+     */
+    private static String canonical(String category) {
+      int index = WeekPlan.indexOf(category, WeekPlan.CATEGORIES);
+      return index < 0 ? category : WeekPlan.CATEGORIES[index];
     }
 
     /**
-     * Method that uses PreparedStatements for insertion of data into the meals in ingredients tables.
-     * @throws SQLException displays the stack trace of the error
+     * Validation rule of setName: Alpha characters and spaces, not blank, at most NAME_LENGTH characters
+     * @param option  the text to check
+     * @return        true if the text is a valid meal name
      */
-    private void addToDatabase() throws SQLException {
-      try {
-        // save meal data to the meal table
-        String mealInsert = "INSERT INTO meals (meal_id, category, meal) VALUES (?, ?, ?)";
-        try (PreparedStatement mealPreparedStatement = con.prepareStatement(mealInsert)) {
-          mealPreparedStatement.setInt(1, Mealid);
-          mealPreparedStatement.setString(2, this.category);
-          mealPreparedStatement.setString(3, this.name);
-          mealPreparedStatement.execute();
-        }
+    private static boolean isName(String option) {
+      return option.length() <= NAME_LENGTH && NAME.matcher(option).matches() && !option.trim().isEmpty();
+    }
 
-        // save meal data to the ingredients table
-        String ingredientInsert = "INSERT INTO ingredients (ingredient_id, ingredient, meal_id) VALUES (?, ?, ?)";
-        try (PreparedStatement ingredientsPreparedStatement = con.prepareStatement(ingredientInsert)) {
-          for (String ingredient : this.ingredients) {
-            ingredientsPreparedStatement.setInt(1, Ingredientid);
-            ingredientsPreparedStatement.setString(2, ingredient);
-            ingredientsPreparedStatement.setInt(3, Mealid);
-            ingredientsPreparedStatement.execute();
-            Ingredientid++;
-          }
+    /**
+     * Validation rule of setIngredients: Alpha characters, commas and spaces, with no blank ingredient and none longer
+     * than NAME_LENGTH characters
+     * @param splitable  the comma separated text to check
+     * @return           the trimmed ingredients, or null if the text is not valid
+     */
+    private static String[] parseIngredients(String splitable) {
+      if (!INGREDIENTS.matcher(splitable).matches()) {
+        return null;
+      }
+      String[] splitted = splitable.split(",");
+      for (int i = 0; i < splitted.length; i++) {
+        splitted[i] = splitted[i].trim();
+        if (splitted[i].isEmpty() || splitted[i].length() > NAME_LENGTH) {
+          return null;
         }
-        Mealid++;
-      } catch (SQLException e) {
-        e.printStackTrace();
       }
+      return splitted;
+    }
+
+    int getId() {
+      return id;
+    }
+
+    String getCategory() {
+      return category;
+    }
+
+    String getName() {
+      return name;
     }
 
     /**
-     * Setter method for Meal category that validates user entry to selected Strings
-     * @return  a String matching "breakfast", "lunch", or "dinner"
+     * @return  a new array of the ingredients, built from the IngredientTable
      */
-    private static String setCategory() {
-      List<String> choices = List.of("breakfast", "lunch", "dinner");
-      while (true) {
-        String option = scanner.nextLine();
-        if (choices.contains(option)) {
-          return option;
-        } else {
-          System.out.println("Wrong meal category! Choose from: breakfast, lunch, dinner.");
-        }
+    String[] getIngredients() {
+      String[] list = new String[getIngredientCount()];
+      for (int i = 0; i < list.length; i++) {
+        list[i] = getIngredient(i);
       }
+      return list;
     }
 
     /**
-     * Setter method for Meal name that restricts entry to Alpha characters and spaces using REGEX
-     * @return  a String of the given name of the meal
+     * @return  the catalog the meal was created for
      */
-    private static String setName() {
-      while (true) {
-        String option = scanner.nextLine();
-        String test = option;
-        if (Pattern.matches("[a-zA-Z\\s]+", option)) {
-          test = test.trim();
-          if (!test.isEmpty()) {
-            return option;
-          }
-        }
-        System.out.println("Wrong format. Use letters only!");
-      }
+    MealCatalog getCatalog() {
+      return catalog;
     }
 
     /**
-     * Setter method for Meal ingredients that accepts a string of Alpha characters, commas, and spaces using REGEX
-     * - parsing single string by commas into a String list, stripping whitespaces.
-     * @return  a String list of ingredients used to make each meal
+     * @return  the row of the ingredient list in the IngredientTable, which no other meal shares
      */
-    private static String[] setIngredients() {
-      while (true) {
-        String splitable = scanner.nextLine();
-        if (Pattern.matches("[a-zA-Z,\\s]+", splitable)) {
-          String[] splitted = splitable.split(",");
-          boolean check = false;
-          for (int i = 0; i < splitted.length; i++) {
-            splitted[i] = splitted[i].trim();
-            if (splitted[i].isEmpty()) {
-              if (!check) {
-                check = true;
-              }
-            }
-          }
-          if (!check) {
-            return splitted;
-          }
-        }
-        System.out.println("Wrong format. Use letters only!");
-      }
+    int getIngredientRow() {
+      return ingredients;
+    }
+
+    int getIngredientCount() {
+      return catalog.getIngredients().count(ingredients);
+    }
+
+    /**
+     * @param index  the position of the ingredient, below getIngredientCount()
+     * @return       the dictionary id of the ingredient in the IngredientTable
+     */
+    int getIngredientId(int index) {
+      return catalog.getIngredients().id(ingredients, index);
+    }
+
+    String getIngredient(int index) {
+      return catalog.getIngredients().name(getIngredientId(index));
     }
 
     /**
-     * Prints the class data of self
+     * Prints the ingredients straight from the IngredientTable, one per line.
+     * @param out  the output of the session printing the meal
      */
-    private void printSelf() {
-      System.out.println("\nCategory: " + this.category);
-      System.out.println("Name: " + this.name);
-      System.out.println("Ingredients:");
-      for (String ingredient : this.ingredients) {
-        System.out.println(ingredient);
+    private void printIngredients(PrintStream out) {
+      out.println("Ingredients:");
+      IngredientTable table = catalog.getIngredients();
+      int count = table.count(ingredients);
+      for (int i = 0; i < count; i++) {
+        out.println(table.name(table.id(ingredients, i)));
       }
     }
   }
 
   /**
-   * Main method for running the program.  Will create a database connection and instantiate a member of self.  If
-   * database tables are present, it will load all data into local memory as Meal Class objects, else it will create
-   * empty database tables.  Will run a menu allowing user to interact with the program.
-   * @param args            no command line arguments are used for this program
+   * Main method for running the program.  Will open the configured repository (see PlannerConfig), create empty
+   * database tables if they are not present and load all stored data into local memory as Meal Class objects.  Then
+   * runs a menu allowing the user to interact with the program, or with "serve" as the first argument, serves the
+   * menu to many users at once over the network (see PlannerServer), or with "replay" and script files, replays the
+   * scripts (see PlannerReplay).  The console output is buffered and flushed whenever input is read.
+   * @param args            "serve" for server mode, "replay" and the scripts for replay mode, nothing for the console
    * @throws SQLException   displays the stack trace of the error
    */
   public static void main(String[] args) throws SQLException {
-    try {
-      // create database and connections
-      String DB_URL = "jdbc:postgresql:meals_db";
-      String USER = "postgres";
-      String PASS = "1111";
-
-      Main.con = DriverManager.getConnection(DB_URL, USER, PASS);
-      con.setAutoCommit(true);
-
-      // instantiate main loading file data into the class and databases
-      Main planner = new Main();
+    PlannerConfig config = PlannerConfig.load();
+    PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+            false);
+    try (MealRepository repository = config.createRepository()) {
+      if (repository instanceof WriteBehindRepository) {
+        // store the queued writes when the process is stopped without the exit command, such as the server
+        Runtime.getRuntime().addShutdownHook(new Thread(((WriteBehindRepository) repository)::drain));
+      }
+      // instantiate main loading stored data into the class
+      Main planner = new Main(repository, config, new MealCatalog(), scanner, console, config.get("owner"));
+      repository.createSchema();
+      planner.loadDatabase();
 
-      // try to query the database - if found: load, else create tables.
+      ChangePoller poller = planner.pollChanges(config.getInt("changes.poll"), config.getInt("changes.gapTimeout"),
+              config.getInt("changes.window"));
       try {
-        Statement testStatement = con.createStatement();
-        ResultSet testSet = testStatement.executeQuery("SELECT * FROM meals");
-        planner.loadDatabase();
-      } catch (SQLException e) {
-        planner.createDatabase();
+        if (args.length > 0 && args[0].equals("serve")) {
+          new PlannerServer(repository, config, planner.Meals).serve();
+        } else if (args.length > 0 && args[0].equals("replay")) {
+          new PlannerReplay(repository, config, planner.Meals).replay(Arrays.asList(args).subList(1, args.length),
+                  console);
+        } else {
+          String record = config.get("record");
+          if (record != null && !record.isBlank()) {
+            planner.Recording = new PrintWriter(new FileWriter(record, true), true);
+          }
+          // run the menu method
+          planner.menu();
+        }
+      } finally {
+        if (poller != null) {
+          poller.close();
+        }
       }
-
-      // run the menu method
-      menu(planner);
-
-      // close the database connection and clear class attribute before exiting
-      con.close();
-      con = null;
-    } catch (SQLException e) {
+    } catch (SQLException | IOException e) {
       e.printStackTrace();
+    } finally {
+      console.flush();
     }
   }
 
   /**
-   * Creates new database tables for synchronizing Meal class data and the SQL database
-   * @throws SQLException  displays the stack trace of the error
+   * Starts tailing the change log, so that the meals and plans other programs store reach this one without a
+   * restart.  LoadedChange is the newest entry when the load began, but a transaction that had numbered a smaller
+   * entry may have committed only after the load read the table, so the poller starts "window" entries earlier and
+   * tracks the ones it does not find as gaps.  The meals of the window the catalog has are skipped.
+   * @param interval    the ms between two reads of the change log, 0 not to read it
+   * @param gapTimeout  the seconds a missing entry of the log is waited for
+   * @param window      the entries up to LoadedChange that are read again
+   * @return            the running poller, or null if the repository is not shared with other programs
    */
-  private void createDatabase() throws SQLException {
-    try {
-      Statement mealsStatement = con.createStatement();
-
-      // drop the existing tables if they exist
-      mealsStatement.executeUpdate("DROP TABLE IF EXISTS meals");
-      mealsStatement.executeUpdate("DROP TABLE IF EXISTS ingredients");
-
-      // create the meals table
-      mealsStatement.executeUpdate("CREATE TABLE meals (" +
-              "meal_id INTEGER PRIMARY KEY," +
-              "category VARCHAR(30)," +
-              "meal VARCHAR(30)" +
-              ")");
-      // create the ingredient table
-      mealsStatement.executeUpdate("CREATE TABLE ingredients (" +
-              "ingredient_id INTEGER PRIMARY KEY," +
-              "ingredient VARCHAR(30)," +
-              "meal_id INTEGER" +
-              ")");
-
-      mealsStatement.close();
-    } catch (SQLException e) {
-      e.printStackTrace();
+  private ChangePoller pollChanges(int interval, int gapTimeout, int window) {
+    if (interval <= 0 || Repository.source() == null) {
+      return null;
+    }
+    return new ChangePoller(Repository, Meals, (id, category, name, ingredients) -> {
+      if (Meals.get(id) == null) {
+        Meals.add(new Meal(Meals, id, category, name, ingredients));
+      }
+    }, Math.max(0, LoadedChange - window), interval, gapTimeout);
+  }
+
+  /**
+   * Drops the cached plans of the Owner if the change log shows they were stored since they were read, by this
+   * session or by another one, so that they are read again on next use.
+   */
+  private void refreshPlans() {
+    long change = Meals.planChange(Owner);
+    if (change > PlanChange) {
+      Plan = null;
+      Calendar = null;
+      PlanChange = change;
     }
   }
 
   /**
-   * Loads all database data into Meal class data at the start of the program and stores all Meal objects in the 
-   * "meals" ArrayList.  This list is not used elsewhere, but was done to learn loading/synchronization between
-   * local class objects and SQL database storage.
+   * @return  the number of menu commands this session has run
+   */
+  long commands() {
+    return Commands;
+  }
+
+  /**
+   * Loads all stored data into Meal class data at the start of the program and stores all Meal objects in the
+   * "Meals" catalog.  When the repository outlives the program, the catalog is read from the CatalogSnapshot file
+   * and only the meals stored since the snapshot are read from the change log; if the meal count then differs from
+   * the database, or there is no usable snapshot, every meal is read from the database and a new snapshot is
+   * written.  Reports the load time and row counts on stderr.
    * @throws SQLException   displays the stack trace of the error
    */
-  private void loadDatabase() throws SQLException {
+  void loadDatabase() throws SQLException {
+    long start = System.nanoTime();
+    String source = Repository.source();
+    Path snapshot = source == null || Snapshot == null || Snapshot.isBlank() ? null : Path.of(Snapshot);
+    MealRepository.MealSink sink = (id, category, name, ingredients) -> {
+      if (Meals.get(id) == null) {
+        Meals.add(new Meal(Meals, id, category, name, ingredients));
+      }
+    };
     try {
-      // load meal data from the database
-      Statement mealStatement = con.createStatement();
-      ResultSet mealSet = mealStatement.executeQuery("SELECT * FROM meals");
-      if (mealSet.next()) {
-      do {
-          String category = mealSet.getString("category");
-          String name = mealSet.getString("meal");
-          int mealid = mealSet.getInt("meal_id");
-          // load ingredient data from the database
-          Statement ingredientStatement = con.createStatement();
-          ResultSet ingredientSet = ingredientStatement.executeQuery("SELECT * FROM ingredients WHERE meal_id = " + mealid);
-          String[] ingredients = new String[10];
-          int count = 0;
-          while (ingredientSet.next()) {
-            String ingredient = ingredientSet.getString("ingredient");
-            if (!ingredient.isEmpty()) {
-              ingredients[count] = ingredient;
-              count++;
-            }
+      long changeId = source == null ? 0 : Repository.lastChange();
+      LoadedChange = changeId;
+      CatalogSnapshot image = snapshot == null ? null : openSnapshot(snapshot, source);
+      if (image != null) {
+        loadSnapshot(image);
+        int replayed = Repository.loadChanges(image.changeId, sink);
+        int stored = Repository.countMeals();
+        if (Meals.size() == stored) {
+          long elapsed = (System.nanoTime() - start) / 1_000_000;
+          System.err.println("Loaded " + Meals.size() + " meals from " + snapshot + " and " + replayed +
+                  " changes in " + elapsed + " ms.");
+          if (replayed >= SNAPSHOT_REPLAY) {
+            writeSnapshot(snapshot, source, changeId);
           }
-          String[] cleaned = new String[count];
-          for (int j = 0; j < count; j++) {
-            cleaned[j] = ingredients[j];
-          }
-          ingredientStatement.close();
-          // save the meal and ingredient data to a Meal object
-        Meals.add(new Meal(category, name, cleaned));
-        } while (!mealSet.isClosed() && mealSet.next()); }
-      mealStatement.close();
+          return;
+        }
+        System.err.println("Snapshot " + snapshot + " holds " + Meals.size() + " of " + stored +
+                " meals, loading the database.");
+      }
+      int rowCount = Repository.loadMeals(sink);
+      long elapsed = (System.nanoTime() - start) / 1_000_000;
+      System.err.println("Loaded " + Meals.size() + " meals (" + rowCount + " rows) in " + elapsed + " ms.");
+      if (snapshot != null) {
+        writeSnapshot(snapshot, source, changeId);
+      }
     } catch (SQLException e) {
       e.printStackTrace();
     }
   }
 
+  private CatalogSnapshot openSnapshot(Path snapshot, String source) {
+    try {
+      return CatalogSnapshot.open(snapshot, source);
+    } catch (IOException e) {
+      System.err.println("Ignoring the snapshot: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Fills the empty catalog from a snapshot: the ingredient lists in one step, then one Meal per row.
+   * @param image the snapshot to load
+   */
+  private void loadSnapshot(CatalogSnapshot image) {
+    Meals.getIngredients().load(image.dictionary, image.offsets, image.references);
+    for (int row = 0; row < image.mealIds.length; row++) {
+      Meals.add(new Meal(Meals, image.mealIds[row], image.categories[image.mealCategories[row]], image.mealNames[row],
+              row));
+    }
+  }
+
+  private void writeSnapshot(Path snapshot, String source, long changeId) {
+    try {
+      CatalogSnapshot.write(snapshot, source, changeId, Meals);
+    } catch (IOException e) {
+      System.err.println("Unable to write the snapshot: " + e.getMessage());
+    }
+  }
 
   /**
-   * The main menu that the user interacts with validating their text entries match to a named method.
-   * @param planner         an instantiation of Main for working with class data
+   * The main menu that the user interacts with validating their text entries match to a named method.  Returns when
+   * the user exits or the input ends.  The latency of every command, less the time spent waiting for input, is
+   * recorded in PlannerStats and printed by the stats command.
    * @throws SQLException   displays the stack trace of the error
    */
-  private static void menu(Main planner) throws SQLException {
+  void menu() throws SQLException {
     try {
       while (true) {
-        System.out.println("What would you like to do (add, show, plan, save, exit)?");
-        String option = scanner.nextLine();
+        reportFailedWrites();
+        out.println("What would you like to do (add, show, plan, save, exit)?");
+        String option = readLine();
+        long start = System.nanoTime();
+        long inputStart = InputNanos;
+        Commands++;
         switch (option) {
-          case "add" -> planner.getMeal();
-          case "show" -> planner.printNames();
-          case "plan" -> planner.planWeek();
-          case "print" -> planner.printWeek();
-          case "save" -> planner.save();
+          case "add" -> getMeal();
+          case "show" -> printNames();
+          case "search" -> search();
+          case "plan" -> planWeek();
+          case "print" -> printWeek();
+          case "save" -> save();
+          case "export" -> export();
+          case "autoplan" -> autoPlan();
+          case "schedule" -> scheduleDays();
+          case "calendar" -> printCalendar();
+          case "shop" -> printShoppingList();
+          case "import" -> importMeals();
+          case "stats" -> {
+            PlannerStats.print(out);
+            PlannerStats.printHeap(out, Meals, StatsGc);
+            if (Repository instanceof WriteBehindRepository) {
+              out.println("Writes waiting for the database: " + ((WriteBehindRepository) Repository).pending());
+            }
+          }
           case "exit" -> {
-            System.out.println("Bye!");
-            System.exit(0);
+            out.println("Bye!");
+            out.flush();
+            return;
           }
         }
+        if (TIMED_COMMANDS.contains(option)) {
+          PlannerStats.command(option, start, InputNanos - inputStart);
+        }
       }
     } catch (SQLException e) {
       e.printStackTrace();
@@ -323,219 +487,838 @@ public class Main {
   }
 
   /**
-   * Method for adding new Meals into the program - utilizing Meal class for validating user input and saving all
-   * necessary information
+   * Reads the next line of the session input, flushing the pending output first so the user sees every prompt.
+   * @return  the line without its terminator
+   * @throws NoSuchElementException if the input has ended
+   */
+  private String readLine() {
+    out.flush();
+    long start = System.nanoTime();
+    try {
+      String line = in.nextLine();
+      if (Recording != null) {
+        Recording.println(line);
+      }
+      return line;
+    } finally {
+      InputNanos += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Setter method for Meal category that validates user entry to selected Strings
+   * @return  a String matching "breakfast", "lunch", or "dinner"
+   */
+  private String setCategory() {
+    while (true) {
+      String option = readLine();
+      if (Meal.isCategory(option)) {
+        return option;
+      } else {
+        out.println("Wrong meal category! Choose from: breakfast, lunch, dinner.");
+      }
+    }
+  }
+
+  /**
+   * Setter method for Meal name that restricts entry to Alpha characters and spaces using REGEX
+   * @return  a String of the given name of the meal
+   */
+  private String setName() {
+    while (true) {
+      String option = readLine();
+      if (Meal.isName(option)) {
+        return option;
+      }
+      out.println("Wrong format. Use letters only!");
+    }
+  }
+
+  /**
+   * Setter method for Meal ingredients that accepts a string of Alpha characters, commas, and spaces using REGEX
+   * - parsing single string by commas into a String list, stripping whitespaces.
+   * @return  a String list of ingredients used to make each meal
+   */
+  private String[] setIngredients() {
+    while (true) {
+      String[] splitted = Meal.parseIngredients(readLine());
+      if (splitted != null) {
+        return splitted;
+      }
+      out.println("Wrong format. Use letters only!");
+    }
+  }
+
+  /**
+   * Method for adding new Meals into the program - asks for the category, name and ingredients through the
+   * validating setters, then stores the meal and its ingredients through the repository in a single transaction - or
+   * queues them, behind a WriteBehindRepository.  Once the repository has taken the meal it is added to the catalog.
    * @throws SQLException   displays the stack trace of the error
    */
   private void getMeal() throws SQLException {
     try {
-      Meals.add(new Meal());
+      out.println("Which meal do you want to add (breakfast, lunch, dinner)?");
+      String category = setCategory();
+      out.println("Input the meal's name:");
+      String name = setName();
+      out.println("Input the ingredients:");
+      String[] list = setIngredients();
+      // meals_category_meal would reject it, and the catalog keeps the first meal of a name
+      if (Meals.find(category, name) != null) {
+        out.println("The meal already exists!");
+        return;
+      }
+      Meal meal = new Meal(Meals, Repository.nextMealId(), category, name, list);
+      addMeals(List.of(meal));
+      Meals.add(meal);
     } catch (SQLException e) {
       e.printStackTrace();
+      out.println("A SQL error has occurred during Meal creation.");
+      return;
     }
+    out.println("The meal has been added!");
   }
 
   /**
-   * Generates a weekly meal plan.  For each day and for each category, the meals matching the category are found
-   * and presented to the user - which they must make a valid selection of.  After selecting all 21 meals, the weekly
-   * plan is printed out (using a helper method).  The results of the weekly plan are saved in a new SQL table using
-   * relational properties for all searches and saves.  Will toggle Main attribute PlanCreated to true upon
-   * completion for later use in save method.
+   * Bulk loads meals from a CSV or JSONL file (chosen by the ".jsonl"/".json" extension).  CSV rows are
+   * "category,name,ingredient[,ingredient...]" with an optional header, JSONL rows are objects with "category",
+   * "name" and an "ingredients" array.  Every row must pass the same validation rules as the add command - invalid
+   * rows are counted and skipped.  Meals are written with batched inserts and committed every ImportChunk meals,
+   * then added to the catalog.  Reports the number of imported and rejected rows and the rows per second.
+   * @throws SQLException   displays the stack trace of the error
    */
-  private void planWeek() throws SQLException {
-    // drop and create the plans table
-    Statement planStatement = con.createStatement();
-    planStatement.executeUpdate("DROP TABLE IF EXISTS plan");
-    planStatement.executeUpdate("CREATE TABLE plan (" +
-            "plan_id INTEGER PRIMARY KEY," +
-            "day VARCHAR(10)," +
-            "category VARCHAR(30)," +
-            "meal_id INTEGER" +
-            ")");
-
-    planStatement.close();
-
-    String[] days = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
-    String[] categories = {"breakfast", "lunch", "dinner"};
+  private void importMeals() throws SQLException {
+    out.println("Input a filename:");
+    String filename = readLine();
+    boolean json = filename.endsWith(".jsonl") || filename.endsWith(".json");
+    long start = System.nanoTime();
+    int imported = 0;
+    int rejected = 0;
+    List<Meal> chunk = new ArrayList<>(ImportChunk);
+    Set<String> chunkNames = new HashSet<>();  // category and name of the meals of the chunk
+    try (BufferedReader reader = new BufferedReader(new FileReader(file(filename).toFile()))) {
+      String line;
+      boolean first = true;
+      while ((line = reader.readLine()) != null) {
+        if (line.isBlank()) {
+          continue;
+        }
+        String[] fields;
+        try {
+          fields = json ? parseJsonMeal(line) : parseCsvMeal(line);
+        } catch (IllegalArgumentException e) {
+          rejected++;
+          first = false;
+          continue;
+        }
+        // skip a CSV header row
+        if (first && !json && fields.length > 0 && fields[0].equals("category")) {
+          first = false;
+          continue;
+        }
+        first = false;
+        String[] ingredients = fields.length > 2 ? Meal.parseIngredients(String.join(",",
+                Arrays.copyOfRange(fields, 2, fields.length))) : null;
+        if (!Meal.isCategory(fields[0]) || !Meal.isName(fields[1]) || ingredients == null) {
+          rejected++;
+          continue;
+        }
+        // meals_category_meal would reject it, like the add command does
+        if (Meals.find(fields[0], fields[1]) != null || !chunkNames.add(fields[0] + '\n' + fields[1])) {
+          rejected++;
+          continue;
+        }
+        chunk.add(new Meal(Meals, Repository.nextMealId(), fields[0], fields[1], ingredients));
+        if (chunk.size() == ImportChunk) {
+          int stored = commitChunk(chunk);
+          imported += stored;
+          rejected += ImportChunk - stored;
+          chunkNames.clear();
+        }
+      }
+      int size = chunk.size();
+      int stored = commitChunk(chunk);
+      imported += stored;
+      rejected += size - stored;
+    } catch (IOException e) {
+      out.println("Unable to import: " + e.getMessage());
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    out.printf("Imported %d meals (%d rejected) in %.2f s (%.0f rows/s).%n",
+            imported, rejected, seconds, (imported + rejected) / Math.max(seconds, 1e-9));
+  }
+
+  /**
+   * Stores the meals of an import chunk in one transaction and adds them to the catalog.  If the repository rejects
+   * the transaction, the meals are stored one at a time, so that a row the database refuses - such as a meal another
+   * program stored meanwhile - costs only itself and the import goes on.  Refused meals are reported on stderr.
+   * @param chunk  the meals read since the last commit, cleared on return
+   * @return       the number of committed meals; the others are rejected
+   */
+  private int commitChunk(List<Meal> chunk) {
+    List<Meal> committed = chunk;
     try {
-      // for each day of the week
-      for (String day : days) {
-        System.out.println(day);
-        // for each meal of the day
-        for (String category : categories) {
-          // query list of available meals
-          String find = "SELECT * FROM meals WHERE category = ? ORDER BY meal ASC";
-          try (PreparedStatement getMeals = con.prepareStatement(find)) {
-            getMeals.setString(1, category);
-            ResultSet mealSet = getMeals.executeQuery();
-            if (!mealSet.next()) {
-              System.out.println("This meal doesn’t exist. Choose a meal from the list above.");
-              getMeals.close();
-              return;
-            }
-            do {
-              String name = mealSet.getString("meal");
-              System.out.println(name);
-            } while (mealSet.next());
-          }
-          // get and validate user entry on meal choice
-          System.out.println("Choose the " + category + " for " + day + " from the list above:");
-          boolean flag = false;
-          int mealInt = -1;
-          while (!flag) {
-            String option = scanner.nextLine();
-            find = "SELECT * FROM meals WHERE category = ? AND meal = ?";
-            try (PreparedStatement findMeals = con.prepareStatement(find)) {
-              findMeals.setString(1, category);
-              findMeals.setString(2, option);
-              ResultSet findSet = findMeals.executeQuery();
-              if (!findSet.next()) {
-                System.out.println("This meal doesn’t exist. Choose a meal from the list above.");
-              } else {
-                mealInt = findSet.getInt("meal_id");
-                flag = true;
-              }
-            }
+      addMeals(chunk);
+    } catch (SQLException e) {
+      committed = new ArrayList<>();
+      for (Meal meal : chunk) {
+        try {
+          addMeals(List.of(meal));
+          committed.add(meal);
+        } catch (SQLException rejected) {
+          System.err.println("Rejected the " + meal.getCategory() + " " + meal.getName() + ": " +
+                  rejected.getMessage());
+        }
+      }
+    }
+    for (Meal meal : committed) {
+      Meals.add(meal);
+    }
+    int count = committed.size();
+    chunk.clear();
+    return count;
+  }
+
+  /**
+   * Splits a CSV import row into fields, honouring double quoted fields (which may contain commas).
+   * @param line  a row of the import file
+   * @return      the category, name and ingredient fields of the row
+   */
+  private static String[] parseCsvMeal(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append(c);
+          i++;
+        } else {
+          quoted = !quoted;
+        }
+      } else if (c == ',' && !quoted) {
+        fields.add(field.toString().trim());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString().trim());
+    if (fields.size() < 2) {
+      throw new IllegalArgumentException("Malformed CSV row: " + line);
+    }
+    return fields.toArray(new String[0]);
+  }
+
+  /**
+   * Reads a JSONL import row of the form {"category": "...", "name": "...", "ingredients": ["...", ...]}.
+   * Only string and string array values are supported, unknown keys are ignored.
+   * @param line  a row of the import file
+   * @return      the category, name and ingredient fields of the row
+   */
+  private static String[] parseJsonMeal(String line) {
+    List<String> fields = new ArrayList<>(List.of("", ""));
+    int[] pos = {0};
+    expectJson(line, pos, '{');
+    while (!peekJson(line, pos, '}')) {
+      String key = readJsonString(line, pos);
+      expectJson(line, pos, ':');
+      if (peekJson(line, pos, '[')) {
+        expectJson(line, pos, '[');
+        List<String> values = new ArrayList<>();
+        while (!peekJson(line, pos, ']')) {
+          values.add(readJsonString(line, pos));
+          if (!peekJson(line, pos, ']')) {
+            expectJson(line, pos, ',');
           }
-          // add valid meal choice entry to the database
-          String plan = "INSERT INTO plan (plan_id, day, category, meal_id) VALUES (?, ?, ?, ?)";
-          try (PreparedStatement planInsert = con.prepareStatement(plan)) {
-            planInsert.setInt(1, Planid);
-            planInsert.setString(2, day);
-            planInsert.setString(3, category);
-            planInsert.setInt(4, mealInt);
-            planInsert.execute();
-            Planid++;
+        }
+        expectJson(line, pos, ']');
+        if (key.equals("ingredients")) {
+          fields.addAll(values);
+        }
+      } else {
+        String value = readJsonString(line, pos);
+        switch (key) {
+          case "category" -> fields.set(0, value);
+          case "name", "meal" -> fields.set(1, value);
+          case "ingredients" -> fields.add(value);
+        }
+      }
+      if (!peekJson(line, pos, '}')) {
+        expectJson(line, pos, ',');
+      }
+    }
+    return fields.toArray(new String[0]);
+  }
+
+  private static boolean peekJson(String line, int[] pos, char expected) {
+    while (pos[0] < line.length() && Character.isWhitespace(line.charAt(pos[0]))) {
+      pos[0]++;
+    }
+    return pos[0] < line.length() && line.charAt(pos[0]) == expected;
+  }
+
+  private static void expectJson(String line, int[] pos, char expected) {
+    if (!peekJson(line, pos, expected)) {
+      throw new IllegalArgumentException("Malformed JSON row, expected '" + expected + "': " + line);
+    }
+    pos[0]++;
+  }
+
+  private static String readJsonString(String line, int[] pos) {
+    expectJson(line, pos, '"');
+    StringBuilder value = new StringBuilder();
+    while (pos[0] < line.length()) {
+      char c = line.charAt(pos[0]++);
+      if (c == '"') {
+        return value.toString();
+      }
+      if (c == '\\' && pos[0] < line.length()) {
+        c = line.charAt(pos[0]++);
+        switch (c) {
+          case 'n' -> c = '\n';
+          case 't' -> c = '\t';
+          case 'u' -> {
+            c = (char) Integer.parseInt(line.substring(pos[0], Math.min(pos[0] + 4, line.length())), 16);
+            pos[0] += 4;
           }
         }
-        System.out.println("Yeah! We planned the meals for " + day + ".");
       }
+      value.append(c);
+    }
+    throw new IllegalArgumentException("Malformed JSON row, unterminated string: " + line);
+  }
+
+  /**
+   * Generates a weekly meal plan.  For each day and for each category, the meals matching the category are found
+   * in the catalog and presented to the user - which they must make a valid selection of.  After selecting all 21
+   * meals, the plan replaces the stored plan of the Owner in one transaction and the weekly plan is printed out
+   * (using a helper method).
+   */
+  private void planWeek() throws SQLException {
+    WeekPlan week = new WeekPlan();
+    // for each day of the week
+    for (int dayIndex = 0; dayIndex < WeekPlan.DAYS.length; dayIndex++) {
+      String day = WeekPlan.DAYS[dayIndex];
+      out.println(day);
+      // for each meal of the day
+      for (int categoryIndex = 0; categoryIndex < WeekPlan.CATEGORIES.length; categoryIndex++) {
+        String category = WeekPlan.CATEGORIES[categoryIndex];
+        // list the available meals from the catalog (sorted by name)
+        Collection<Meal> choices = Meals.getMeals(category);
+        if (choices.isEmpty()) {
+          out.println("This meal doesn’t exist. Choose a meal from the list above.");
+          return;
+        }
+        for (Meal choice : choices) {
+          out.println(choice.getName());
+        }
+        // get and validate user entry on meal choice
+        out.println("Choose the " + category + " for " + day + " from the list above:");
+        Meal chosen = Meals.find(category, readLine());
+        while (chosen == null) {
+          out.println("This meal doesn’t exist. Choose a meal from the list above.");
+          chosen = Meals.find(category, readLine());
+        }
+        week.set(dayIndex, categoryIndex, chosen);
+      }
+      out.println("Yeah! We planned the meals for " + day + ".");
+    }
+    storePlan(week);
+    Plan = week;
+    printWeek();
+  }
+
+  /**
+   * Tells the user when the write-behind writer could not store a meal or a plan of the Owner, and drops the cached
+   * plan so that the one the database holds is shown and planned from again.
+   */
+  private void reportFailedWrites() {
+    if (!(Repository instanceof WriteBehindRepository)) {
+      return;
+    }
+    WriteBehindRepository writeBehind = (WriteBehindRepository) Repository;
+    for (Meal meal : writeBehind.takeFailedMeals(Owner)) {
+      // the writer may have failed it before this session added it to the catalog
+      Meals.remove(meal);
+      out.println("The " + meal.getCategory() + " " + meal.getName() + " could not be saved and was removed.");
+    }
+    if (writeBehind.takeFailedPlan(Owner)) {
+      out.println("Your last plan could not be saved, the plan saved before it is kept.");
+      Plan = null;
+    }
+  }
+
+  /**
+   * Stores meals through the Repository; behind a WriteBehindRepository they are queued for the Owner, so that
+   * reportFailedWrites can tell the user of a meal that fails after this call returned.
+   * @param meals         the meals to store
+   * @throws SQLException if the meals cannot be stored or queued
+   */
+  private void addMeals(List<Meal> meals) throws SQLException {
+    if (Repository instanceof WriteBehindRepository) {
+      ((WriteBehindRepository) Repository).addMeals(Owner, meals);
+    } else {
+      Repository.addMeals(meals);
+    }
+  }
+
+  /**
+   * Creates or replaces the stored plan of the Owner in one small transaction.
+   * @param week          the plan to store
+   * @throws SQLException displays the stack trace of the error
+   */
+  private void storePlan(WeekPlan week) throws SQLException {
+    try {
+      Repository.storePlan(Owner, week);
     } catch (SQLException e) {
       e.printStackTrace();
     }
-    PlanCreated = true;
-    printWeek();
   }
 
   /**
-   * Prints a weekly meal list to the screen.  For each day and for each category, queries the plan table and prints
-   * the first found meal.
+   * Prints a weekly meal list to the screen from the in-memory plan, whose rendered text is cached until the plan
+   * changes.  The plan left by a previous run is read once from the repository.
    * @throws SQLException  displays the stack trace of the error
    */
-    private void printWeek() throws SQLException {
-      String[] days = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
-      String[] categories = {"breakfast", "lunch", "dinner"};
-      // for each day of the week
-      for (String day : days) {
-          System.out.println("\n" + day);
-        // for each meal of the day
-        for (String category : categories) {
-          // query list of available meals
-          String find = "SELECT * FROM plan WHERE day = ? AND category = ?";
-          try (PreparedStatement getPlan = con.prepareStatement(find)) {
-            getPlan.setString(1, day);
-            getPlan.setString(2, category);
-            ResultSet mealSet = getPlan.executeQuery();
-            if (!mealSet.next()) {
-              getPlan.close();
-            } else {
-              int mealID = mealSet.getInt("meal_id");
-              find = "SELECT * FROM meals WHERE meal_id = ?";
-              try (PreparedStatement getMeal = con.prepareStatement(find)) {
-                getMeal.setInt(1, mealID);
-                ResultSet foundMeal = getMeal.executeQuery();
-                if (foundMeal.next()) {
-                  String mealName = foundMeal.getString("meal");
-                    System.out.println(category + ": " + mealName);
-                  }
-                }
-              }
-              mealSet.close();
-            } catch (SQLException e) {
-            e.printStackTrace();
-            }
-          }
+  private void printWeek() throws SQLException {
+    refreshPlans();
+    if (Plan == null) {
+      Plan = loadPlan();
+    }
+    out.print(Plan.render());
+  }
+
+  /**
+   * Loads the stored plan of the Owner into a WeekPlan.
+   * @return  the stored plan, empty if the owner has none
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private WeekPlan loadPlan() throws SQLException {
+    return loadPlan(Owner);
+  }
+
+  /**
+   * Loads the stored plan of an owner into a WeekPlan.
+   * @param owner  the owner of the plan
+   * @return       the stored plan, empty if the owner has none
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private WeekPlan loadPlan(String owner) throws SQLException {
+    WeekPlan week = new WeekPlan();
+    try {
+      Repository.loadPlan(owner, (dayName, categoryName, mealId) -> {
+        int day = WeekPlan.indexOf(dayName, WeekPlan.DAYS);
+        int category = WeekPlan.indexOf(categoryName, WeekPlan.CATEGORIES);
+        Meal meal = Meals.get(mealId);
+        if (day >= 0 && category >= 0 && meal != null) {
+          week.set(day, category, meal);
         }
-      PlanCreated = true;
+      });
+    } catch (SQLException e) {
+      e.printStackTrace();
     }
+    return week;
+  }
 
   /**
-   * Runs a SQL query to final the count of all meals and the count of all ingredients in said meals.  Uses the
-   * results to generate text output that is appended to a file in the local path.
-   * @throws SQLException
+   * Plans a run of dates of any length, starting on any date the calendar can plan.  Like planWeek, the meals of
+   * each category are listed for each date and the user chooses one; the chosen days are then stored in one
+   * transaction, added to the calendar of the Owner and printed.  Dates planned before are replaced.
+   * @throws SQLException  displays the stack trace of the error
    */
-  private void save() throws SQLException {
-    String find = "SELECT ingredient, count(ingredient_id) " +
-            "FROM ingredients " +
-            "JOIN meals ON meals.meal_id=ingredients.meal_id " +
-            "JOIN plan ON meals.meal_id=plan.meal_id " +
-            "GROUP BY ingredient;";
-    try (PreparedStatement getList = con.prepareStatement(find)) {
-      ResultSet mealSet = getList.executeQuery();
-      System.out.println("\nInput a filename:");
-      String filename = scanner.nextLine();
-      File file = new File("./" + filename);
-      try (FileWriter fileWriter = new FileWriter(file, true)) {
-        while (mealSet.next()) {
-          String ingredient = mealSet.getString("ingredient");
-          int count = mealSet.getInt("count");
-          String output = "";
-          if (count > 1) {
-            output = ingredient + " x" + count + "\n";
-          } else {
-            output = ingredient + "\n";
-          }
-          fileWriter.write(output);
+  private void scheduleDays() throws SQLException {
+    out.println("Input the first date to plan (yyyy-mm-dd):");
+    LocalDate first = readDate(null);
+    out.println("How many days should be planned?");
+    // not past the last date the calendar can plan
+    long left = MealCalendar.LAST_DATE.toEpochDay() - first.toEpochDay() + 1;
+    int count = readNumber(1, (int) Math.min(SCHEDULE_DAYS, left));
+    Meal[][] days = new Meal[count][WeekPlan.CATEGORIES.length];
+    for (int day = 0; day < count; day++) {
+      LocalDate date = first.plusDays(day);
+      String dayName = WeekPlan.DAYS[date.getDayOfWeek().ordinal()] + " " + date;
+      out.println(dayName);
+      for (int categoryIndex = 0; categoryIndex < WeekPlan.CATEGORIES.length; categoryIndex++) {
+        String category = WeekPlan.CATEGORIES[categoryIndex];
+        Collection<Meal> choices = Meals.getMeals(category);
+        if (choices.isEmpty()) {
+          out.println("This meal doesn’t exist. Choose a meal from the list above.");
+          return;
+        }
+        for (Meal choice : choices) {
+          out.println(choice.getName());
+        }
+        out.println("Choose the " + category + " for " + dayName + " from the list above:");
+        Meal chosen = Meals.find(category, readLine());
+        while (chosen == null) {
+          out.println("This meal doesn’t exist. Choose a meal from the list above.");
+          chosen = Meals.find(category, readLine());
         }
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+        days[day][categoryIndex] = chosen;
       }
+      out.println("Yeah! We planned the meals for " + dayName + ".");
+    }
+    try {
+      Repository.storeDays(Owner, first, days);
     } catch (SQLException e) {
-      System.out.println("Unable to save. Plan your meals first.");
+      e.printStackTrace();
+      out.println("A SQL error has occurred while storing the days.");
+      return;
     }
-    System.out.println("Saved!");
+    MealCalendar calendar = getCalendar();
+    for (int day = 0; day < count; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        calendar.set(first.plusDays(day), category, days[day][category]);
+      }
     }
+    out.print(calendar.render(first, first.plusDays(count - 1)));
+  }
 
   /**
-   * Gets validated category input from user, queries database and prints records matching requested category.
-   * @throws SQLException   displays the stack trace of the error
+   * Prints the planned meals of a range of dates from the calendar of the Owner.
+   * @throws SQLException  displays the stack trace of the error
    */
-  private void printNames() throws SQLException {
-    // get category input from user (validated in method)
-    System.out.println("\nWhich category do you want to print (breakfast, lunch, dinner)?");
-    String category = Meal.setCategory();
+  private void printCalendar() throws SQLException {
+    MealCalendar calendar = getCalendar();
+    if (calendar.first() == null) {
+      out.println("No days are planned.");
+      return;
+    }
+    LocalDate[] range = readRange(calendar);
+    out.print(calendar.render(range[0], range[1]));
+  }
+
+  /**
+   * Prints the shopping list of a range of dates of the calendar of the Owner, summed from the precomputed
+   * ingredient counts of the calendar instead of the meals of every day.
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private void printShoppingList() throws SQLException {
+    MealCalendar calendar = getCalendar();
+    if (calendar.first() == null) {
+      out.println("No days are planned.");
+      return;
+    }
+    LocalDate[] range = readRange(calendar);
+    ShoppingList list = calendar.shoppingList(range[0], range[1]);
+    if (list.isEmpty()) {
+      out.println("Nothing is planned from " + range[0] + " to " + range[1] + ".");
+      return;
+    }
     try {
-      PreparedStatement mealStatement = con.prepareStatement("SELECT * FROM meals WHERE category = ?");
-      mealStatement.setString(1, category);
-      ResultSet mealSet = mealStatement.executeQuery();
-      // if no meals were found in the database
-      if (!mealSet.next()) {
-        System.out.println("No meals found.");
-        mealStatement.close();
-        return;
+      list.writeTo(out);
+    } catch (IOException e) {
+      // a PrintStream does not throw
+    }
+  }
+
+  /**
+   * Asks for the first and the last date of a range, defaulting to the planned dates of the calendar.
+   * @return  the first and the last date, in order
+   */
+  private LocalDate[] readRange(MealCalendar calendar) {
+    out.println("Input the first date (yyyy-mm-dd), or nothing for " + calendar.first() + ":");
+    LocalDate from = readDate(calendar.first());
+    out.println("Input the last date (yyyy-mm-dd), or nothing for " + calendar.last() + ":");
+    LocalDate to = readDate(calendar.last());
+    return from.isAfter(to) ? new LocalDate[] {to, from} : new LocalDate[] {from, to};
+  }
+
+  /**
+   * Reads a date, asking again until a valid one the calendar can plan is given.
+   * @param empty  the date an empty line stands for, null to require a date
+   * @return       the date
+   */
+  private LocalDate readDate(LocalDate empty) {
+    while (true) {
+      String option = readLine().trim();
+      if (option.isEmpty() && empty != null) {
+        return empty;
+      }
+      try {
+        LocalDate date = LocalDate.parse(option);
+        if (MealCalendar.canPlan(date)) {
+          return date;
+        }
+        out.println("Wrong date! Use a date from " + MealCalendar.FIRST_DATE + " to " + MealCalendar.LAST_DATE + ".");
+      } catch (DateTimeParseException e) {
+        out.println("Wrong date! Use the format yyyy-mm-dd.");
+      }
+    }
+  }
+
+  /**
+   * @return  the calendar of the Owner, read from the repository on first use
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private MealCalendar getCalendar() throws SQLException {
+    refreshPlans();
+    if (Calendar == null) {
+      MealCalendar calendar = new MealCalendar(Meals.getIngredients());
+      try {
+        Repository.loadDays(Owner, (date, categoryName, mealId) -> {
+          int category = WeekPlan.indexOf(categoryName, WeekPlan.CATEGORIES);
+          Meal meal = Meals.get(mealId);
+          // a date no calendar can plan is not written by this program
+          if (category >= 0 && meal != null && MealCalendar.canPlan(date)) {
+            calendar.set(date, category, meal);
+          }
+        });
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+      Calendar = calendar;
+    }
+    return Calendar;
+  }
+
+  /**
+   * Writes the shopping list of the plan - the count of all ingredients of the planned meals - to a file in the local
+   * path (see file), in the format its name asks for (see ShoppingListExport); plain text is appended.  The counts
+   * are kept up to date by the plan itself, so no query is run.  Reports the bytes written and the throughput on stderr.
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private void save() throws SQLException {
+    refreshPlans();
+    if (Plan == null) {
+      Plan = loadPlan();
+    }
+    ShoppingList list = Plan.getShoppingList();
+    if (list.isEmpty()) {
+      out.println("Unable to save. Plan your meals first.");
+      return;
+    }
+    out.println("\nInput a filename:");
+    String filename = readLine();
+    long start = System.nanoTime();
+    try {
+      long written = Exports.get().write(list, file(filename));
+      out.println("Saved!");
+      System.err.println(throughput("Wrote " + filename, written, start));
+    } catch (IOException e) {
+      out.println("Unable to save: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the shopping lists of the stored plans of several owners, each to its own file named after the given
+   * file name with "-owner" inserted before the extension (list.csv.gz becomes list-ann.csv.gz).  Plans are loaded
+   * and written in parallel on the Exporters, one thread per core, which keep their buffers from one export to the
+   * next.  Reports the lists and bytes written and the throughput.
+   */
+  private void export() {
+    out.println("Input the owners of the plans (comma separated):");
+    List<String> owners = new ArrayList<>();
+    for (String owner : readLine().split(",")) {
+      if (PlannerServer.OWNER.matcher(owner.trim()).matches() && !owners.contains(owner.trim())) {
+        owners.add(owner.trim());
       }
-      // load meals data from the database
-      System.out.println("Category: " + category);
-      do {
-        String name = mealSet.getString("meal");
-        System.out.println("\nName: " + name);
-        int meal_id = mealSet.getInt("meal_id");
-        // load ingredient data from the database
-        PreparedStatement ingredientStatement = con.prepareStatement("SELECT * FROM ingredients WHERE meal_id = ?");
-        ingredientStatement.setInt(1, meal_id);
-        ResultSet ingredientSet = ingredientStatement.executeQuery();
-        System.out.println("Ingredients:");
-        while (ingredientSet.next()) {
-          String ingredient = ingredientSet.getString("ingredient");
-          System.out.println(ingredient);
+    }
+    if (owners.isEmpty()) {
+      out.println("No owners given.");
+      return;
+    }
+    out.println("Input a filename:");
+    String filename = readLine();
+    int dot = filename.indexOf('.', filename.lastIndexOf('/') + 1);
+    String base = dot < 0 ? filename : filename.substring(0, dot);
+    String extension = dot < 0 ? "" : filename.substring(dot);
+    long start = System.nanoTime();
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (String owner : owners) {
+        Path file = file(base + "-" + owner.replace(' ', '_') + extension);
+        results.add(Exporters.submit(() -> {
+          ShoppingList list = loadPlan(owner).getShoppingList();
+          return list.isEmpty() ? -1 : Exports.get().write(list, file);
+        }));
+      }
+      int lists = 0;
+      long written = 0;
+      for (int i = 0; i < owners.size(); i++) {
+        try {
+          long bytes = results.get(i).get();
+          if (bytes < 0) {
+            out.println(owners.get(i) + " has no plan.");
+          } else {
+            lists++;
+            written += bytes;
+          }
+        } catch (ExecutionException e) {
+          out.println("Unable to export the plan of " + owners.get(i) + ": " + e.getCause().getMessage());
         }
-        ingredientStatement.close();
-      } while (mealSet.next());
-      System.out.println();
+      }
+      out.println(throughput("Exported " + lists + (lists == 1 ? " shopping list" : " shopping lists"), written,
+              start));
+    } catch (InterruptedException | IOException e) {
+      out.println("Unable to export: " + e.getMessage());
+    }
+  }
 
-      mealStatement.close();
+  /**
+   * Resolves a filename typed into the import, save or export command.  A session with a FileRoot only reaches the
+   * files below it: the name is resolved against it, and a name that leads out of it - an absolute path or one with
+   * ".." - is refused.
+   * @param filename      the typed filename
+   * @return              the path of the file
+   * @throws IOException  if the name is not a valid path, or leads out of FileRoot
+   */
+  private Path file(String filename) throws IOException {
+    try {
+      if (FileRoot == null) {
+        return Path.of(filename);
+      }
+      Path file = FileRoot.resolve(filename).normalize();
+      if (!file.startsWith(FileRoot) || file.equals(FileRoot)) {
+        throw new IOException(filename + " is outside of the file directory");
+      }
+      return file;
+    } catch (InvalidPathException e) {
+      throw new IOException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return  the report line of a file export: what was written, its size in bytes, the time taken and the MB/s
+   */
+  private static String throughput(String what, long bytes, long startNanos) {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return String.format("%s: %d bytes in %.1f ms (%.1f MB/s).", what, bytes, seconds * 1000,
+            bytes / 1e6 / Math.max(seconds, 1e-9));
+  }
+
+  /**
+   * Searches the catalog by the start of a meal name, a part of a meal name, or a set of ingredients that the meals
+   * must all contain, and lists the first SEARCH_RESULTS matches with their category.  Answered from the search
+   * indexes of the catalog, without touching the database.
+   */
+  private void search() {
+    out.println("What would you like to search by (name, prefix, ingredients)?");
+    String option = readLine();
+    while (!List.of("name", "prefix", "ingredients").contains(option)) {
+      out.println("Wrong search! Choose from: name, prefix, ingredients.");
+      option = readLine();
+    }
+    List<Meal> found = new ArrayList<>();
+    int count;
+    if (option.equals("ingredients")) {
+      out.println("Input the ingredients:");
+      count = Meals.findByIngredients(setIngredients(), SEARCH_RESULTS, found);
+    } else {
+      out.println(option.equals("prefix") ? "Input the start of the meal's name:" : "Input part of the meal's name:");
+      count = Meals.findByName(readLine().trim(), option.equals("prefix"), SEARCH_RESULTS, found);
+    }
+    if (count == 0) {
+      out.println("No meals found.");
+      return;
+    }
+    out.println("Found " + count + (count == 1 ? " meal:" : " meals:"));
+    for (Meal meal : found) {
+      out.println(meal.getCategory() + ": " + meal.getName());
+    }
+    if (count > found.size()) {
+      out.println("... and " + (count - found.size()) + " more.");
+    }
+  }
+
+  /**
+   * Generates and stores the plans of many households at once with a PlanGenerator: the households are named after
+   * the Owner with a number ("ann 1", "ann 2", ...), planned in parallel from the catalog and stored in batches.
+   * Households are generated and stored AUTOPLAN_CHUNK at a time, so that only the plans of one chunk are held in
+   * memory however many households are planned.  Reports the plans per second of both steps and the quality of the
+   * plans.
+   * @throws SQLException  displays the stack trace of the error
+   */
+  private void autoPlan() throws SQLException {
+    out.println("How many households should be planned?");
+    int households = readNumber(1, 1_000_000);
+    if (!PlannerServer.OWNER.matcher(Owner + " " + households).matches()) {
+      out.println("Unable to plan: the household names would not fit an owner name.");
+      return;
+    }
+    out.println("Do not repeat a meal within how many days?");
+    int repeatDays = readNumber(1, WeekPlan.DAYS.length);
+    out.println("At most how many distinct ingredients per plan?");
+    int maxIngredients = readNumber(1, Integer.MAX_VALUE);
+    PlanGenerator generator = new PlanGenerator(Meals, repeatDays, maxIngredients, Owner.hashCode());
+    PlanGenerator.Quality quality = new PlanGenerator.Quality();
+    WeekPlan[] plans = new WeekPlan[Math.min(households, AUTOPLAN_CHUNK)];
+    Map<String, WeekPlan> byOwner = new LinkedHashMap<>();
+    long generating = 0;  // ns spent in each step
+    long storing = 0;
+    int stored = 0;
+    try {
+      for (int first = 0; first < households; first += plans.length) {
+        int count = Math.min(plans.length, households - first);
+        long start = System.nanoTime();
+        generator.generate(plans, first, count, quality);
+        long generated = System.nanoTime();
+        generating += generated - start;
+        for (int i = 0; i < count; i++) {
+          byOwner.put(Owner + " " + (first + i + 1), plans[i]);
+        }
+        Repository.storePlans(byOwner);
+        storing += System.nanoTime() - generated;
+        stored += count;
+        byOwner.clear();
+      }
     } catch (SQLException e) {
       e.printStackTrace();
+      out.println("A SQL error has occurred while storing the plans.");
+    }
+    out.printf("Planned %d households in %.1f ms (%.0f plans/s).%n", quality.plans(), generating / 1e6,
+            quality.plans() / Math.max(generating / 1e9, 1e-9));
+    out.println(quality.describe(maxIngredients, repeatDays));
+    out.printf("Stored %d plans in %.1f ms (%.0f plans/s).%n", stored, storing / 1e6,
+            stored / Math.max(storing / 1e9, 1e-9));
+  }
+
+  /**
+   * Reads a whole number, asking again until one in range is given.
+   * @param min  the smallest accepted number
+   * @param max  the largest accepted number
+   * @return     the number
+   */
+  private int readNumber(int min, int max) {
+    while (true) {
+      String option = readLine().trim();
+      if (NUMBER.matcher(option).matches()) {
+        try {
+          int number = Integer.parseInt(option);
+          if (number >= min && number <= max) {
+            return number;
+          }
+        } catch (NumberFormatException e) {
+          // too long for an int, so out of range
+        }
+      }
+      out.println("Wrong number! Use a whole number from " + min + " to " + max + ".");
+    }
+  }
+
+  /**
+   * Gets validated category input from user and prints the catalog records matching requested category.
+   * @throws SQLException   displays the stack trace of the error
+   */
+  private void printNames() throws SQLException {
+    // get category input from user (validated in method)
+    out.println("\nWhich category do you want to print (breakfast, lunch, dinner)?");
+    String category = setCategory();
+    Collection<Meal> meals = Meals.getMeals(category);
+    // if no meals were found in the catalog
+    if (meals.isEmpty()) {
+      out.println("No meals found.");
+      return;
+    }
+    out.println("Category: " + category);
+    for (Meal meal : meals) {
+      out.println("\nName: " + meal.getName());
+      meal.printIngredients(out);
     }
+    out.println();
   }
 }
@@ -0,0 +1,273 @@
+package mealplanner;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * In-memory model of a plan by date, of any length: one Meal per date and category slot.  The shopping list of any
+ * range of dates is summed from a segment tree over the days rather than from the meals of every day in the range.
+ * Each node of the tree holds the ingredient counts of the meals of its span of days, kept up to date as slots are
+ * assigned, so a range is covered by at most two nodes per level and its list costs O(log days) merges however many
+ * days or years of plans it spans.  The leaves are the days themselves, counted from their meals when a query reaches
+ * them.  The days are numbered from an origin date; a date outside the span of the tree rebuilds it twice as wide.
+ * Only the dates from FIRST_DATE to LAST_DATE can be planned, which bounds the tree to MAX_SPAN days.
+ */
+class MealCalendar {
+  final static LocalDate FIRST_DATE = LocalDate.of(2000, 1, 1);  // the first and last dates that can be planned
+  final static LocalDate LAST_DATE = LocalDate.of(2099, 12, 31);
+  private final static int MIN_SPAN = 64;  // days of the smallest tree
+  private final static int MAX_SPAN = 1 << 16;  // days of the widest tree, more than FIRST_DATE to LAST_DATE
+
+  private final IngredientTable ingredients;  // names of the counted ingredient ids
+  private long origin = 0;  // epoch day of day 0
+  private int span = 0;  // days covered by the tree, a power of two, 0 while nothing is planned
+  private Main.Meal[][] days = new Main.Meal[0][];  // day -> category -> meal, null if empty
+  private Counts[] nodes = new Counts[0];  // node 1 is the root, node i has children 2i and 2i + 1, null if empty
+  private long first = Long.MAX_VALUE;  // epoch days of the first and last planned dates
+  private long last = Long.MIN_VALUE;
+
+  /**
+   * Ingredient counts of the meals of a span of days, in an open addressing table of ingredient id -> count.  Ids are
+   * never removed: a count that drops to zero stays in the table, to be reused when the ingredient comes back.
+   */
+  private static class Counts {
+    private int[] ids = new int[16];
+    private int[] counts = new int[16];
+    private int size = 0;
+
+    private Counts() {
+      Arrays.fill(ids, -1);
+    }
+
+    private void add(int id, int delta) {
+      int mask = ids.length - 1;
+      int slot = (id * 0x9E3779B1) >>> 1 & mask;
+      while (ids[slot] != id) {
+        if (ids[slot] < 0) {
+          if (2 * (size + 1) > ids.length) {
+            grow();
+            add(id, delta);
+            return;
+          }
+          ids[slot] = id;
+          size++;
+          break;
+        }
+        slot = slot + 1 & mask;
+      }
+      counts[slot] += delta;
+    }
+
+    private void grow() {
+      int[] oldIds = ids;
+      int[] oldCounts = counts;
+      ids = new int[oldIds.length * 2];
+      counts = new int[oldIds.length * 2];
+      Arrays.fill(ids, -1);
+      size = 0;
+      for (int slot = 0; slot < oldIds.length; slot++) {
+        if (oldIds[slot] >= 0 && oldCounts[slot] > 0) {
+          add(oldIds[slot], oldCounts[slot]);
+        }
+      }
+    }
+
+    private void addTo(ShoppingList list, IngredientTable ingredients) {
+      for (int slot = 0; slot < ids.length; slot++) {
+        if (counts[slot] > 0) {
+          list.add(ids[slot], counts[slot], ingredients);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param ingredients  the ingredient table of the catalog the planned meals belong to
+   */
+  MealCalendar(IngredientTable ingredients) {
+    this.ingredients = ingredients;
+  }
+
+  /**
+   * Assigns a meal to a slot of the calendar, moving the ingredient counts of every node above the day from the
+   * replaced meal to the new one.
+   * @param date      the date of the slot
+   * @param category  index into WeekPlan.CATEGORIES
+   * @param meal      the planned Meal, or null to clear the slot
+   * @throws IllegalArgumentException  if the date cannot be planned
+   */
+  void set(LocalDate date, int category, Main.Meal meal) {
+    if (!canPlan(date)) {
+      throw new IllegalArgumentException(date + " is not between " + FIRST_DATE + " and " + LAST_DATE);
+    }
+    long epochDay = date.toEpochDay();
+    if (span == 0 || epochDay < origin || epochDay >= origin + span) {
+      if (meal == null) {
+        return;
+      }
+      resize(epochDay);
+    }
+    int day = (int) (epochDay - origin);
+    if (days[day] == null) {
+      if (meal == null) {
+        return;
+      }
+      days[day] = new Main.Meal[WeekPlan.CATEGORIES.length];
+    }
+    Main.Meal replaced = days[day][category];
+    if (replaced != null) {
+      count(day, replaced, -1);
+    }
+    if (meal != null) {
+      count(day, meal, 1);
+      first = Math.min(first, epochDay);
+      last = Math.max(last, epochDay);
+    }
+    days[day][category] = meal;
+  }
+
+  /**
+   * @param date  a date
+   * @return      true if the date is from FIRST_DATE to LAST_DATE
+   */
+  static boolean canPlan(LocalDate date) {
+    return !date.isBefore(FIRST_DATE) && !date.isAfter(LAST_DATE);
+  }
+
+  /**
+   * @param date      a date
+   * @param category  index into WeekPlan.CATEGORIES
+   * @return          the Meal planned for the slot, or null if the slot is empty
+   */
+  Main.Meal get(LocalDate date, int category) {
+    long epochDay = date.toEpochDay();
+    if (epochDay < origin || epochDay >= origin + span || days[(int) (epochDay - origin)] == null) {
+      return null;
+    }
+    return days[(int) (epochDay - origin)][category];
+  }
+
+  /**
+   * @return  the first date that ever had a meal planned, or null if none has
+   */
+  LocalDate first() {
+    return first == Long.MAX_VALUE ? null : LocalDate.ofEpochDay(first);
+  }
+
+  /**
+   * @return  the last date that ever had a meal planned, or null if none has
+   */
+  LocalDate last() {
+    return last == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(last);
+  }
+
+  /**
+   * Sums the ingredient counts of the meals planned from one date to another, both included.
+   * @param from  the first date of the range
+   * @param to    the last date of the range
+   * @return      a new list of the needed ingredients, empty if nothing is planned in the range
+   */
+  ShoppingList shoppingList(LocalDate from, LocalDate to) {
+    ShoppingList list = new ShoppingList();
+    // clipped to the tree, as [left, right) leaf positions
+    long low = Math.max(from.toEpochDay(), origin);
+    long high = Math.min(to.toEpochDay(), origin + span - 1);
+    if (span == 0 || low > high) {
+      return list;
+    }
+    int left = (int) (low - origin) + span;
+    int right = (int) (high - origin) + span + 1;
+    while (left < right) {
+      if ((left & 1) == 1) {
+        addNode(left++, list);
+      }
+      if ((right & 1) == 1) {
+        addNode(--right, list);
+      }
+      left >>>= 1;
+      right >>>= 1;
+    }
+    return list;
+  }
+
+  /**
+   * Renders the dates of a range as printed by the calendar command: each date on its own line with its day of the
+   * week, preceded by a blank line, followed by a "category: meal" line for every planned slot of that date.
+   * @param from  the first date of the range
+   * @param to    the last date of the range
+   * @return      the rendered range
+   */
+  String render(LocalDate from, LocalDate to) {
+    StringBuilder builder = new StringBuilder();
+    for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+      builder.append('\n').append(WeekPlan.DAYS[date.getDayOfWeek().ordinal()]).append(' ').append(date)
+              .append('\n');
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        Main.Meal meal = get(date, category);
+        if (meal != null) {
+          builder.append(WeekPlan.CATEGORIES[category]).append(": ").append(meal.getName()).append('\n');
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  private void addNode(int node, ShoppingList list) {
+    if (node >= span) {
+      Main.Meal[] slots = days[node - span];
+      for (int category = 0; slots != null && category < slots.length; category++) {
+        if (slots[category] != null) {
+          list.add(slots[category]);
+        }
+      }
+    } else if (nodes[node] != null) {
+      nodes[node].addTo(list, ingredients);
+    }
+  }
+
+  /**
+   * Adds the ingredients of a meal to, or takes them from, every node above a day.
+   */
+  private void count(int day, Main.Meal meal, int delta) {
+    for (int node = (day + span) >>> 1; node > 0; node >>>= 1) {
+      if (nodes[node] == null) {
+        nodes[node] = new Counts();
+      }
+      for (int i = 0; i < meal.getIngredientCount(); i++) {
+        nodes[node].add(meal.getIngredientId(i), delta);
+      }
+    }
+  }
+
+  /**
+   * Widens the tree to cover a date outside of it, at least doubling its span so that a calendar growing a day at a
+   * time is rebuilt only O(log days) times, and recounts the planned days into the new nodes.  The room to grow is
+   * left on the side of the new date, up to MAX_SPAN, which every plannable date fits in.
+   */
+  private void resize(long epochDay) {
+    long low = span == 0 ? epochDay : Math.min(epochDay, first);
+    long high = span == 0 ? epochDay : Math.max(epochDay, last);
+    int newSpan = Math.min(Math.max(MIN_SPAN, span * 2), MAX_SPAN);
+    while (newSpan < high - low + 1) {
+      newSpan *= 2;
+    }
+    long newOrigin = span != 0 && epochDay < origin ? high - newSpan + 1 : low;
+    Main.Meal[][] newDays = new Main.Meal[newSpan][];
+    for (int day = 0; day < span; day++) {
+      if (days[day] != null) {
+        newDays[(int) (origin + day - newOrigin)] = days[day];
+      }
+    }
+    origin = newOrigin;
+    span = newSpan;
+    days = newDays;
+    nodes = new Counts[newSpan];
+    for (int day = 0; day < span; day++) {
+      for (int category = 0; days[day] != null && category < days[day].length; category++) {
+        if (days[day][category] != null) {
+          count(day, days[day][category], 1);
+        }
+      }
+    }
+  }
+}
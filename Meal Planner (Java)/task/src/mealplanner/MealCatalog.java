@@ -0,0 +1,158 @@
+package mealplanner;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory index of every Meal known to the program.  Meals are grouped by category and kept sorted by name so that
+ * listing the choices for a category and validating a typed meal name are answered without touching the database.
+ * Kept in sync with the database by Main.getMeal() and Main.loadDatabase(), and with the meals other programs
+ * store by a ChangePoller, which also records here which plans they stored.  One catalog is shared by every
+ * session, so it is built on concurrent maps: lookups never block and listings are weakly consistent snapshots.
+ * The ingredients of the meals live in the catalog's IngredientTable, each name stored once, and every added meal
+ * is indexed for the search command by a MealSearchIndex.
+ */
+class MealCatalog {
+  private final Map<String, ConcurrentSkipListMap<String, Main.Meal>> categories =
+          new ConcurrentHashMap<>();  // category -> name -> meal
+  private final Map<Integer, Main.Meal> ids = new ConcurrentHashMap<>();  // meal_id -> meal
+  private final AtomicInteger size = new AtomicInteger();
+  private final IngredientTable ingredients = new IngredientTable();
+  private final MealSearchIndex search = new MealSearchIndex();
+  private final Map<String, Long> planChanges = new ConcurrentHashMap<>();  // owner -> newest change of its plans
+
+  /**
+   * Adds a meal to the index.  If the category already holds a meal of the same name the first one is kept, which
+   * matches the first row the old "WHERE category = ? AND meal = ?" lookup returned.
+   * @param meal  the Meal to index
+   */
+  void add(Main.Meal meal) {
+    ConcurrentSkipListMap<String, Main.Meal> names =
+            categories.computeIfAbsent(meal.getCategory(), key -> new ConcurrentSkipListMap<>());
+    if (names.putIfAbsent(meal.getName(), meal) == null) {
+      size.incrementAndGet();
+      search.add(meal);
+    }
+    ids.putIfAbsent(meal.getId(), meal);
+  }
+
+  /**
+   * Takes a meal out of the index, such as one the database refused to store.  Plans holding it keep it.
+   * @param meal  the indexed Meal
+   */
+  void remove(Main.Meal meal) {
+    ConcurrentSkipListMap<String, Main.Meal> names = categories.get(meal.getCategory());
+    if (names != null && names.remove(meal.getName(), meal)) {
+      size.decrementAndGet();
+      search.remove(meal);
+    }
+    ids.remove(meal.getId(), meal);
+  }
+
+  /**
+   * Lists the meals of a category.
+   * @param category  a String matching "breakfast", "lunch", or "dinner"
+   * @return          the meals of the category sorted by name, empty if there are none
+   */
+  Collection<Main.Meal> getMeals(String category) {
+    ConcurrentSkipListMap<String, Main.Meal> names = categories.get(category);
+    return names == null ? List.of() : Collections.unmodifiableCollection(names.values());
+  }
+
+  /**
+   * Finds a meal by category and exact name.
+   * @param category  a String matching "breakfast", "lunch", or "dinner"
+   * @param name      the name of the meal
+   * @return          the matching Meal, or null if it is not in the catalog
+   */
+  Main.Meal find(String category, String name) {
+    ConcurrentSkipListMap<String, Main.Meal> names = categories.get(category);
+    return names == null ? null : names.get(name);
+  }
+
+  /**
+   * @return  every meal of the catalog, category by category, sorted by name within each
+   */
+  List<Main.Meal> getAllMeals() {
+    List<Main.Meal> meals = new ArrayList<>(size());
+    for (ConcurrentSkipListMap<String, Main.Meal> names : categories.values()) {
+      meals.addAll(names.values());
+    }
+    return meals;
+  }
+
+  /**
+   * Finds a meal by its meal_id.
+   * @param id  the meal_id of the meal
+   * @return    the matching Meal, or null if it is not in the catalog
+   */
+  Main.Meal get(int id) {
+    return ids.get(id);
+  }
+
+  /**
+   * Finds the meal_id of a meal by category and exact name.
+   * @param category  a String matching "breakfast", "lunch", or "dinner"
+   * @param name      the name of the meal
+   * @return          the meal_id, or -1 if the meal is not in the catalog
+   */
+  int findId(String category, String name) {
+    Main.Meal meal = find(category, name);
+    return meal == null ? -1 : meal.getId();
+  }
+
+  /**
+   * Finds the meals whose name starts with, or contains, the text, ignoring case.
+   * @param text    the start or a part of a meal name
+   * @param prefix  true to match the start of the name only
+   * @param limit   the most meals to add to found
+   * @param found   receives up to limit matching meals
+   * @return        the number of matching meals
+   */
+  int findByName(String text, boolean prefix, int limit, List<Main.Meal> found) {
+    return search.findByName(text, prefix, limit, found);
+  }
+
+  /**
+   * Finds the meals that contain every one of the ingredients.
+   * @param names   the ingredient names, matched exactly
+   * @param limit   the most meals to add to found
+   * @param found   receives up to limit matching meals
+   * @return        the number of matching meals
+   */
+  int findByIngredients(String[] names, int limit, List<Main.Meal> found) {
+    return search.findByIngredients(names, ingredients, limit, found);
+  }
+
+  /**
+   * Records that the plans of an owner were stored, possibly by another program.
+   * @param owner     the owner of the plans
+   * @param changeId  the change log entry of the store
+   */
+  void planChanged(String owner, long changeId) {
+    planChanges.merge(owner, changeId, Math::max);
+  }
+
+  /**
+   * @param owner  the owner of a plan
+   * @return       the newest change log entry of the plans of the owner seen so far, 0 if none
+   */
+  long planChange(String owner) {
+    return planChanges.getOrDefault(owner, 0L);
+  }
+
+  /**
+   * @return  the ingredient dictionary and ingredient lists of the meals
+   */
+  IngredientTable getIngredients() {
+    return ingredients;
+  }
+
+  /**
+   * @return  the number of indexed meals
+   */
+  int size() {
+    return size.get();
+  }
+}
@@ -0,0 +1,156 @@
+package mealplanner;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of meals and plans.  Main only talks to storage through this interface, so the Postgres backed
+ * JdbcMealRepository can be swapped for the InMemoryMealRepository (see PlannerConfig).  Implementations are shared
+ * by every planner in the process and must be thread safe.
+ */
+interface MealRepository extends AutoCloseable {
+
+  /** Receives the stored meals from loadMeals. */
+  interface MealSink {
+    void accept(int id, String category, String name, String[] ingredients);
+  }
+
+  /** Receives the stored slots of a plan from loadPlan. */
+  interface SlotSink {
+    void accept(String day, String category, int mealId);
+  }
+
+  /** Receives the entries of the change log from tailChanges. */
+  interface ChangeSink {
+    /** A stored meal. */
+    void meal(long changeId, int id, String category, String name, String[] ingredients);
+
+    /** A store of the plan or the dated plans of an owner. */
+    void plan(long changeId, String owner);
+  }
+
+  /** Receives the stored dated slots of an owner from loadDays. */
+  interface DaySink {
+    void accept(LocalDate date, String category, int mealId);
+  }
+
+  /**
+   * Creates the tables of the repository if they are missing, or upgrades them to the current schema.
+   * @throws SQLException  if the schema cannot be created
+   */
+  void createSchema() throws SQLException;
+
+  /**
+   * Passes every stored meal to the sink in meal_id order.
+   * @param sink          the receiver of the meals
+   * @return              the number of rows read
+   * @throws SQLException if the meals cannot be read
+   */
+  int loadMeals(MealSink sink) throws SQLException;
+
+  /**
+   * Passes the meals stored after an entry of the change log to the sink, in the order they were stored.
+   * @param after         the id of a change log entry, 0 for the whole log
+   * @param sink          the receiver of the meals
+   * @return              the number of meals read
+   * @throws SQLException if the meals cannot be read
+   */
+  int loadChanges(long after, MealSink sink) throws SQLException;
+
+  /**
+   * Passes every entry of the change log after an entry to the sink, in change order, for other programs sharing the
+   * storage to catch up with.  Entries may become visible out of order, as their transactions commit.
+   * @param after         the id of a change log entry, 0 for the whole log
+   * @param sink          the receiver of the entries
+   * @return              the number of entries read
+   * @throws SQLException if the change log cannot be read
+   */
+  int tailChanges(long after, ChangeSink sink) throws SQLException;
+
+  /**
+   * @return              the id of the newest entry of the change log, 0 if it is empty
+   * @throws SQLException if the change log cannot be read
+   */
+  long lastChange() throws SQLException;
+
+  /**
+   * @return              the number of stored meals
+   * @throws SQLException if the meals cannot be counted
+   */
+  int countMeals() throws SQLException;
+
+  /**
+   * @return  a name of the stored data, such as the database url, that a CatalogSnapshot is only valid for, or null
+   *          if the data does not outlive the program
+   */
+  String source();
+
+  /**
+   * Reserves the meal_id of a new meal.  No other caller, in this program or another one sharing the storage, gets
+   * the same id.
+   * @return              an unused meal_id
+   * @throws SQLException if no id can be reserved
+   */
+  int nextMealId() throws SQLException;
+
+  /**
+   * Stores meals in a single transaction, either all or none of them, with an entry in the change log for each.  The
+   * ingredient rows are numbered by the repository.
+   * @param meals         the meals to store, each with a meal_id from nextMealId()
+   * @throws SQLException if the meals cannot be stored
+   */
+  void addMeals(List<Main.Meal> meals) throws SQLException;
+
+  /**
+   * Creates or replaces the stored plan of an owner in a single transaction, with an entry in the change log.  An
+   * empty slot of the plan is stored empty, whatever meal the slot held before.
+   * @param owner         the owner of the plan
+   * @param week          the plan to store
+   * @throws SQLException if the plan cannot be stored
+   */
+  void storePlan(String owner, WeekPlan week) throws SQLException;
+
+  /**
+   * Creates or replaces the stored plans of many owners with batched statements, a transaction per batch of owners,
+   * with an entry in the change log for each owner.
+   * @param plans         owner -> plan to store
+   * @throws SQLException if the plans cannot be stored; the batches before the failing one stay stored
+   */
+  void storePlans(Map<String, WeekPlan> plans) throws SQLException;
+
+  /**
+   * Passes every stored slot of the plan of an owner to the sink.
+   * @param owner         the owner of the plan
+   * @param sink          the receiver of the slots
+   * @throws SQLException if the plan cannot be read
+   */
+  void loadPlan(String owner, SlotSink sink) throws SQLException;
+
+  /**
+   * Creates or replaces the stored meals of an owner for a run of dates in a single transaction, with an entry in the
+   * change log.  Dates and slots
+   * outside the run, and empty slots within it, keep what is stored for them.
+   * @param owner         the owner of the calendar
+   * @param first         the date of days[0]
+   * @param days          day -> category index -> the planned meal, or null to leave the slot as it is
+   * @throws SQLException if the days cannot be stored
+   */
+  void storeDays(String owner, LocalDate first, Main.Meal[][] days) throws SQLException;
+
+  /**
+   * Passes every stored dated slot of an owner to the sink, in date order.
+   * @param owner         the owner of the calendar
+   * @param sink          the receiver of the slots
+   * @throws SQLException if the calendar cannot be read
+   */
+  void loadDays(String owner, DaySink sink) throws SQLException;
+
+  /**
+   * Releases the resources of the repository.
+   * @throws SQLException if the resources cannot be released
+   */
+  @Override
+  void close() throws SQLException;
+}
@@ -0,0 +1,308 @@
+package mealplanner;
+
+import java.util.*;
+
+/**
+ * Inverted indexes of the catalog for the search command.  Meal names are indexed by their letter trigrams
+ * (case-insensitive, with a start-of-name marker so that prefixes have trigrams of their own, and a start-of-name
+ * bigram for one letter prefixes); ingredients are indexed by their IngredientTable id.  Each index entry is a
+ * posting list: the sorted IngredientTable rows of the meals that contain the trigram or ingredient.  A query
+ * intersects the posting lists of its terms, walking the shortest one and galloping through the others, so its cost
+ * follows the rarest term instead of the size of the catalog.  The few meals left are checked against the query
+ * text, since trigrams alone do not prove a substring.  Substring queries shorter than a trigram fall back to a scan
+ * of every meal.
+ * Meals are added under the index's lock and never removed; queries take no lock and see the meals added before
+ * they started.
+ */
+class MealSearchIndex {
+  private final static int SYMBOLS = 29;  // start marker, a-z, whitespace, anything else
+  private final static int START = 0;
+  private final static int SPACE = 27;
+  private final static int OTHER = 28;
+  private final static int LONG_LIST = 16;  // see intersect
+
+  private final PostingList[] trigrams = new PostingList[SYMBOLS * SYMBOLS * SYMBOLS];  // trigram key -> rows
+  private volatile PostingList[] ingredients = new PostingList[256];  // ingredient id -> rows
+  private volatile Main.Meal[] meals = new Main.Meal[1024];  // row -> indexed meal, null if not indexed
+  private volatile int rows = 0;  // one past the highest indexed row
+
+  /**
+   * Growable sorted list of rows, appended to under the lock of the index.  The size is written after the slot and
+   * the array, so a reader that reads the size first never sees an unwritten slot.
+   */
+  private static class PostingList {
+    private volatile int[] rows = new int[4];
+    private volatile int size = 0;
+
+    private void add(int row) {
+      int[] list = rows;
+      if (size == list.length) {
+        list = Arrays.copyOf(list, size * 2);
+        rows = list;
+      }
+      // rows almost always arrive in order; one appended out of order by a concurrent add is moved into place
+      int i = size;
+      while (i > 0 && list[i - 1] > row) {
+        list[i] = list[i - 1];
+        i--;
+      }
+      list[i] = row;
+      size = size + 1;
+    }
+  }
+
+  /**
+   * Indexes the name and the ingredients of a meal newly added to the catalog.
+   * @param meal  the Meal to index
+   */
+  synchronized void add(Main.Meal meal) {
+    int row = meal.getIngredientRow();
+    Main.Meal[] byRow = meals;
+    if (row >= byRow.length) {
+      byRow = Arrays.copyOf(byRow, Math.max(row + 1, byRow.length * 2));
+    }
+    byRow[row] = meal;
+    meals = byRow;
+    int[] keys = keys(meal.getName(), true);
+    for (int i = 0; i < keys.length; i++) {
+      if (!contains(keys, i, keys[i])) {
+        if (trigrams[keys[i]] == null) {
+          trigrams[keys[i]] = new PostingList();
+        }
+        trigrams[keys[i]].add(row);
+      }
+    }
+    int[] ids = new int[meal.getIngredientCount()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = meal.getIngredientId(i);
+      if (!contains(ids, i, ids[i])) {
+        PostingList[] lists = ingredients;
+        if (ids[i] >= lists.length) {
+          lists = Arrays.copyOf(lists, Math.max(ids[i] + 1, lists.length * 2));
+          ingredients = lists;
+        }
+        if (lists[ids[i]] == null) {
+          lists[ids[i]] = new PostingList();
+        }
+        lists[ids[i]].add(row);
+      }
+    }
+    rows = Math.max(rows, row + 1);
+  }
+
+  /**
+   * Stops finding a meal taken out of the catalog.  Its posting list entries stay, and are skipped by the searches.
+   * @param meal  the indexed Meal
+   */
+  synchronized void remove(Main.Meal meal) {
+    Main.Meal[] byRow = meals;
+    int row = meal.getIngredientRow();
+    if (row < byRow.length && byRow[row] == meal) {
+      byRow[row] = null;
+    }
+  }
+
+  /**
+   * @return  true if value is among the first "length" entries of values
+   */
+  private static boolean contains(int[] values, int length, int value) {
+    for (int i = 0; i < length; i++) {
+      if (values[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the meals whose name starts with, or contains, the text, ignoring case.
+   * @param text    the start or a part of a meal name
+   * @param prefix  true to match the start of the name only
+   * @param limit   the most meals to add to found
+   * @param found   receives up to limit matching meals, in the order they were added to the catalog
+   * @return        the number of matching meals
+   */
+  int findByName(String text, boolean prefix, int limit, List<Main.Meal> found) {
+    int[] candidates;
+    if (prefix || text.length() >= 3) {
+      int[] keys = keys(text, prefix);
+      PostingList[] lists = new PostingList[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        lists[i] = trigrams[keys[i]];
+      }
+      candidates = intersect(lists, true);
+    } else {
+      candidates = null;  // every row
+    }
+    int count = 0;
+    int size = rows;
+    Main.Meal[] byRow = meals;
+    int total = candidates == null ? size : candidates.length;
+    for (int i = 0; i < total; i++) {
+      Main.Meal meal = byRow[candidates == null ? i : candidates[i]];
+      if (meal == null) {
+        continue;
+      }
+      String name = meal.getName();
+      if (prefix ? name.regionMatches(true, 0, text, 0, text.length()) : containsIgnoreCase(name, text)) {
+        if (count++ < limit) {
+          found.add(meal);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Finds the meals that contain every one of the ingredients.
+   * @param names   the ingredient names, matched exactly
+   * @param table   the IngredientTable of the catalog
+   * @param limit   the most meals to add to found
+   * @param found   receives up to limit matching meals, in the order they were added to the catalog
+   * @return        the number of matching meals
+   */
+  int findByIngredients(String[] names, IngredientTable table, int limit, List<Main.Meal> found) {
+    PostingList[] byId = ingredients;
+    PostingList[] lists = new PostingList[names.length];
+    for (int i = 0; i < names.length; i++) {
+      int id = table.find(names[i]);
+      lists[i] = id < 0 || id >= byId.length ? null : byId[id];
+    }
+    int[] matches = intersect(lists, false);
+    Main.Meal[] byRow = meals;
+    int count = 0;
+    for (int row : matches) {
+      // null for a removed meal
+      if (byRow[row] != null && count++ < limit) {
+        found.add(byRow[row]);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Intersects posting lists: every row of the shortest list is looked up in the others by galloping forward from
+   * the previous match, so the cost is about (shortest size) * (lists) * log(gap).  Lists far longer than the
+   * shortest (such as the trigrams of a name prefix most meals share) cost a cache miss per lookup and filter out
+   * little, so a caller that checks the candidates itself can have them skipped.
+   * @param lists      the posting lists, null for a term nothing contains
+   * @param skipLong   true to skip the lists more than LONG_LIST times longer than the shortest one
+   * @return           the rows present in every (used) list, in order; every indexed row if there are no lists
+   */
+  private int[] intersect(PostingList[] lists, boolean skipLong) {
+    if (lists.length == 0) {
+      int size = rows;
+      int[] all = new int[size];
+      int count = 0;
+      Main.Meal[] byRow = meals;
+      for (int row = 0; row < size; row++) {
+        if (byRow[row] != null) {
+          all[count++] = row;
+        }
+      }
+      return Arrays.copyOf(all, count);
+    }
+    // snapshot every list, the size before the array
+    int[] sizes = new int[lists.length];
+    int[][] arrays = new int[lists.length][];
+    int shortest = 0;
+    for (int i = 0; i < lists.length; i++) {
+      if (lists[i] == null) {
+        return new int[0];
+      }
+      sizes[i] = lists[i].size;
+      arrays[i] = lists[i].rows;
+      if (sizes[i] < sizes[shortest]) {
+        shortest = i;
+      }
+    }
+    int[] result = new int[sizes[shortest]];
+    int count = 0;
+    int[] positions = new int[lists.length];
+    for (int s = 0; s < sizes[shortest]; s++) {
+      int row = arrays[shortest][s];
+      boolean everywhere = true;
+      for (int i = 0; i < lists.length && everywhere; i++) {
+        if (i != shortest && !(skipLong && sizes[i] / LONG_LIST > sizes[shortest])) {
+          positions[i] = gallop(arrays[i], positions[i], sizes[i], row);
+          everywhere = positions[i] < sizes[i] && arrays[i][positions[i]] == row;
+        }
+      }
+      if (everywhere) {
+        result[count++] = row;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * @return  the first position at or after "from" whose row is at least "row", or size if there is none
+   */
+  private static int gallop(int[] list, int from, int size, int row) {
+    int step = 1;
+    int high = from;
+    while (high < size && list[high] < row) {
+      from = high + 1;
+      high += step;
+      step <<= 1;
+    }
+    high = Math.min(high, size);
+    // binary search in [from, high)
+    while (from < high) {
+      int middle = (from + high) >>> 1;
+      if (list[middle] < row) {
+        from = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return from;
+  }
+
+  private static boolean containsIgnoreCase(String name, String text) {
+    for (int i = 0; i + text.length() <= name.length(); i++) {
+      if (name.regionMatches(true, i, text, 0, text.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Turns a name or a query into index keys: the trigrams of the text, preceded by the start marker if anchored,
+   * and for an anchored text the bigram of the marker and the first letter (stored as a trigram ending in the
+   * marker, which cannot occur inside a name).  An anchored text of one letter has only that bigram.
+   * @param text      the text to split
+   * @param anchored  true if the text is the start of a name
+   * @return          the keys, possibly repeated
+   */
+  private static int[] keys(String text, boolean anchored) {
+    int length = text.length() + (anchored ? 1 : 0);
+    int[] symbols = new int[length];
+    int offset = 0;
+    if (anchored) {
+      symbols[offset++] = START;
+    }
+    for (int i = 0; i < text.length(); i++) {
+      symbols[offset++] = symbol(text.charAt(i));
+    }
+    int trigramCount = Math.max(0, length - 2);
+    boolean bigram = anchored && length >= 2;
+    int[] keys = new int[trigramCount + (bigram ? 1 : 0)];
+    for (int i = 0; i < trigramCount; i++) {
+      keys[i] = (symbols[i] * SYMBOLS + symbols[i + 1]) * SYMBOLS + symbols[i + 2];
+    }
+    if (bigram) {
+      keys[trigramCount] = (START * SYMBOLS + symbols[1]) * SYMBOLS + START;
+    }
+    return keys;
+  }
+
+  private static int symbol(char c) {
+    c = Character.toLowerCase(c);
+    if (c >= 'a' && c <= 'z') {
+      return c - 'a' + 1;
+    }
+    return Character.isWhitespace(c) ? SPACE : OTHER;
+  }
+}
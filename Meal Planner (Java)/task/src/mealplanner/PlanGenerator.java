@@ -0,0 +1,249 @@
+package mealplanner;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fills weekly plans from the catalog without asking anyone, for many households at once.  Each slot is filled
+ * greedily, day by day: a sample of the meals of the category is scored by how many of their ingredients the plan
+ * already needs, less the ones it would add, and the best meal that breaks no constraint wins - a meal is not
+ * repeated within "repeatDays" days, and the plan needs at most "maxIngredients" distinct ingredients.  If no meal of
+ * the sample fits, the one adding the fewest ingredients is taken anyway - a meal that is not repeated if there is
+ * one - and the plan counts as a violation.
+ * Households are independent, so they are split into ranges over a ForkJoinPool; each household draws from its own
+ * random generator seeded by its number, so the same run always yields the same plans.  The ingredient ids of the
+ * meals are copied once per run into flat arrays per category, so scoring a meal reads one short run of ints.
+ */
+class PlanGenerator {
+  private final static int SAMPLE = 64;  // meals scored per slot
+  private final static int LEAF = 64;  // households per ForkJoin task
+
+  private final Main.Meal[][] meals;  // category index -> the meals of the category
+  private final int[][] offsets;  // category index -> meal index -> start of its ingredient ids in ids
+  private final int[][] ids;  // category index -> the ingredient ids of its meals back to back
+  private final int ingredientIds;  // one past the highest ingredient id of the catalog
+  private final int repeatDays;
+  private final int maxIngredients;
+  private final long seed;
+
+  /**
+   * Summary of a run: how many plans kept every constraint and how short their shopping lists are.
+   */
+  static class Quality {
+    private long plans;
+    private long distinct;  // distinct ingredients over all plans
+    private int maxDistinct;
+    private long overCap;  // plans needing more than maxIngredients ingredients
+    private long repeats;  // slots repeating a meal within repeatDays days
+    private long emptySlots;  // slots of categories with no meals
+
+    private void add(Quality other) {
+      plans += other.plans;
+      distinct += other.distinct;
+      maxDistinct = Math.max(maxDistinct, other.maxDistinct);
+      overCap += other.overCap;
+      repeats += other.repeats;
+      emptySlots += other.emptySlots;
+    }
+
+    /**
+     * @return  the number of plans generated so far
+     */
+    long plans() {
+      return plans;
+    }
+
+    /**
+     * @return  the report lines of the run
+     */
+    String describe(int maxIngredients, int repeatDays) {
+      return String.format("Distinct ingredients per plan: %.1f on average, %d at most (cap %d).%n" +
+                      "Plans over the ingredient cap: %d, meals repeated within %d days: %d, empty slots: %d.",
+              plans == 0 ? 0 : distinct / (double) plans, maxDistinct, maxIngredients, overCap, repeatDays,
+              repeats, emptySlots);
+    }
+  }
+
+  /**
+   * Takes the meals of the catalog as they are now; meals added later are not planned.
+   * @param catalog         the catalog to choose from
+   * @param repeatDays      a meal chosen on a day is not chosen again for this many days, 1 to allow any repeat
+   * @param maxIngredients  the most distinct ingredients a plan should need
+   * @param seed            the seed of the random choices
+   */
+  PlanGenerator(MealCatalog catalog, int repeatDays, int maxIngredients, long seed) {
+    this.meals = new Main.Meal[WeekPlan.CATEGORIES.length][];
+    this.offsets = new int[meals.length][];
+    this.ids = new int[meals.length][];
+    for (int category = 0; category < meals.length; category++) {
+      Main.Meal[] choices = catalog.getMeals(WeekPlan.CATEGORIES[category]).toArray(new Main.Meal[0]);
+      int[] offset = new int[choices.length + 1];
+      for (int i = 0; i < choices.length; i++) {
+        offset[i + 1] = offset[i] + choices[i].getIngredientCount();
+      }
+      int[] id = new int[offset[choices.length]];
+      for (int i = 0; i < choices.length; i++) {
+        for (int j = 0; j < choices[i].getIngredientCount(); j++) {
+          id[offset[i] + j] = choices[i].getIngredientId(j);
+        }
+      }
+      meals[category] = choices;
+      offsets[category] = offset;
+      ids[category] = id;
+    }
+    // read after the meals, so that it covers every id they use
+    this.ingredientIds = catalog.getIngredients().distinct();
+    this.repeatDays = Math.max(1, repeatDays);
+    this.maxIngredients = maxIngredients;
+    this.seed = seed;
+  }
+
+  /**
+   * Generates the plans of households first to first + count - 1 in parallel on the common ForkJoinPool, so that a
+   * large run can be generated and stored a chunk of households at a time.
+   * @param plans    receives the plan of household first + i at index i
+   * @param first    the number of the first household
+   * @param count    the number of households, at most plans.length
+   * @param quality  receives the quality of the plans
+   */
+  void generate(WeekPlan[] plans, int first, int count, Quality quality) {
+    Task task = new Task(plans, first, 0, count);
+    ForkJoinPool.commonPool().invoke(task);
+    quality.add(task.quality);
+  }
+
+  // never serialized: ForkJoin tasks are Serializable only through RecursiveAction
+  @SuppressWarnings("serial")
+  private class Task extends RecursiveAction {
+    private final WeekPlan[] plans;
+    private final int first;  // the number of the household at index 0 of plans
+    private final int from;
+    private final int to;
+    private final Quality quality = new Quality();
+
+    private Task(WeekPlan[] plans, int first, int from, int to) {
+      this.plans = plans;
+      this.first = first;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= LEAF) {
+        int[] uses = new int[ingredientIds];  // ingredient id -> slots of the current plan needing it
+        for (int household = from; household < to; household++) {
+          plans[household] = plan(first + household, uses, quality);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      Task left = new Task(plans, first, from, middle);
+      Task right = new Task(plans, first, middle, to);
+      invokeAll(left, right);
+      quality.add(left.quality);
+      quality.add(right.quality);
+    }
+  }
+
+  /**
+   * Plans the week of one household.
+   * @param household  the number of the household, which seeds its choices
+   * @param uses       all zero; left all zero
+   * @param quality    receives the measures of the plan
+   */
+  private WeekPlan plan(int household, int[] uses, Quality quality) {
+    SplittableRandom random = new SplittableRandom(seed * 31 + household);
+    WeekPlan week = new WeekPlan();
+    int distinct = 0;
+    boolean overCap = false;
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        Main.Meal[] choices = meals[category];
+        if (choices.length == 0) {
+          quality.emptySlots++;
+          continue;
+        }
+        int[] offset = offsets[category];
+        int[] id = ids[category];
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        // the fewest new ingredients over the cap, and over both constraints, for when nothing fits
+        int overCapBest = -1;
+        int overCapAdded = Integer.MAX_VALUE;
+        int anyBest = -1;
+        int anyAdded = Integer.MAX_VALUE;
+        int samples = Math.min(SAMPLE, choices.length);
+        // small categories are scored whole, starting anywhere
+        int start = random.nextInt(choices.length);
+        for (int i = 0; i < samples; i++) {
+          int meal = samples == choices.length ? (start + i) % choices.length : random.nextInt(choices.length);
+          int added = 0;
+          for (int j = offset[meal]; j < offset[meal + 1]; j++) {
+            if (uses[id[j]] == 0) {
+              added++;
+            }
+          }
+          if (added < anyAdded) {
+            anyBest = meal;
+            anyAdded = added;
+          }
+          if (repeated(week, day, category, choices[meal])) {
+            continue;
+          }
+          if (added < overCapAdded) {
+            overCapBest = meal;
+            overCapAdded = added;
+          }
+          int score = offset[meal + 1] - offset[meal] - 2 * added;
+          if (distinct + added <= maxIngredients && score > bestScore) {
+            best = meal;
+            bestScore = score;
+          }
+        }
+        if (best < 0) {
+          best = overCapBest >= 0 ? overCapBest : anyBest;
+          if (overCapBest < 0) {
+            quality.repeats++;
+          }
+          overCap |= distinct + (overCapBest >= 0 ? overCapAdded : anyAdded) > maxIngredients;
+        }
+        for (int j = offset[best]; j < offset[best + 1]; j++) {
+          if (uses[id[j]]++ == 0) {
+            distinct++;
+          }
+        }
+        week.set(day, category, choices[best]);
+      }
+    }
+    // clear the uses of this plan for the next one
+    for (int day = 0; day < WeekPlan.DAYS.length; day++) {
+      for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+        Main.Meal meal = week.get(day, category);
+        for (int i = 0; meal != null && i < meal.getIngredientCount(); i++) {
+          uses[meal.getIngredientId(i)] = 0;
+        }
+      }
+    }
+    quality.plans++;
+    quality.distinct += distinct;
+    quality.maxDistinct = Math.max(quality.maxDistinct, distinct);
+    if (overCap) {
+      quality.overCap++;
+    }
+    return week;
+  }
+
+  /**
+   * @return  true if the meal is planned in the same category within the last repeatDays - 1 days
+   */
+  private boolean repeated(WeekPlan week, int day, int category, Main.Meal meal) {
+    for (int previous = Math.max(0, day - repeatDays + 1); previous < day; previous++) {
+      if (week.get(previous, category) == meal) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
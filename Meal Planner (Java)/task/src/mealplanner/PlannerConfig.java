@@ -0,0 +1,109 @@
+package mealplanner;
+
+import java.io.*;
+import java.util.Properties;
+
+/**
+ * Settings of the program.  Each key is looked up, in order of precedence, as a system property prefixed with
+ * "mealplanner." (-Dmealplanner.db.url=...), as an environment variable prefixed with "MEALPLANNER_" with dots
+ * replaced by underscores (MEALPLANNER_DB_URL=...), in the properties file named by the "config" key (default
+ * "mealplanner.properties" in the working directory, skipped if absent), and finally in the built-in defaults.
+ */
+class PlannerConfig {
+  private final Properties defaults = new Properties();
+  private final Properties file = new Properties();
+
+  private PlannerConfig() {
+    defaults.setProperty("config", "mealplanner.properties");
+    defaults.setProperty("repository", "jdbc");  // "jdbc" for Postgres or "memory" for the embedded repository
+    defaults.setProperty("db.url", "jdbc:postgresql:meals_db");
+    defaults.setProperty("db.user", "postgres");
+    defaults.setProperty("db.password", "1111");
+    defaults.setProperty("db.poolSize", "8");  // most connections open at once
+    defaults.setProperty("db.poolTimeout", "30");  // seconds to wait for a free connection
+    defaults.setProperty("db.statementCache", "32");  // prepared statements kept open per connection
+    defaults.setProperty("fetchSize", "1000");  // rows per round trip when loading the catalog
+    defaults.setProperty("importChunk", "1000");  // meals per commit when importing
+    defaults.setProperty("writeBehind", "0");  // most writes waiting for the database, 0 to write synchronously
+    defaults.setProperty("writeBehind.batch", "500");  // most queued writes stored together
+    defaults.setProperty("writeBehind.drainTimeout", "30");  // seconds exit keeps retrying the queued writes
+    defaults.setProperty("snapshot", "mealplanner.snapshot");  // catalog snapshot file, empty to load from the database
+    defaults.setProperty("changes.poll", "1000");  // ms between reads of the change log, 0 to never read it
+    defaults.setProperty("changes.gapTimeout", "60");  // seconds a missing change log entry is waited for
+    defaults.setProperty("changes.window", "1000");  // change log entries before the loaded ones that are read again
+    defaults.setProperty("owner", System.getProperty("user.name", "planner"));  // owner of the stored plan
+    defaults.setProperty("server.port", "7070");  // port of the "serve" mode
+    defaults.setProperty("server.address", "127.0.0.1");  // address the "serve" mode listens on, 0.0.0.0 for every one
+    defaults.setProperty("server.files", "exports");  // the only directory the file commands of served sessions use
+    defaults.setProperty("server.sessions", "64");  // most sessions served at once
+    defaults.setProperty("server.idleTimeout", "600");  // seconds a session waits for its next line before it ends
+    defaults.setProperty("record", "");  // file the console input is appended to as a replay script, empty for none
+    defaults.setProperty("replay.sessions", "0");  // sessions of the "replay" mode, 0 for one per script
+    defaults.setProperty("replay.threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+    defaults.setProperty("replay.output", "");  // directory of the session transcripts, empty to discard them
+    defaults.setProperty("stats.gc", "false");  // true for the stats command to force a full collection, for operators
+  }
+
+  /**
+   * Reads the configuration from system properties, the environment and the properties file.
+   * @return  the loaded configuration
+   */
+  static PlannerConfig load() {
+    PlannerConfig config = new PlannerConfig();
+    File source = new File(config.get("config"));
+    if (source.isFile()) {
+      try (Reader reader = new BufferedReader(new FileReader(source))) {
+        config.file.load(reader);
+      } catch (IOException e) {
+        System.err.println("Unable to read " + source + ": " + e.getMessage());
+      }
+    }
+    return config;
+  }
+
+  /**
+   * @param key   a configuration key such as "db.url"
+   * @return      the configured value, or null if the key is unknown
+   */
+  String get(String key) {
+    String value = System.getProperty("mealplanner." + key);
+    if (value == null) {
+      value = System.getenv("MEALPLANNER_" + key.replace('.', '_').toUpperCase());
+    }
+    if (value == null) {
+      value = file.getProperty(key);
+    }
+    return value != null ? value : defaults.getProperty(key);
+  }
+
+  /**
+   * @param key   a configuration key with an integer value such as "db.poolSize"
+   * @return      the configured value
+   */
+  int getInt(String key) {
+    String value = get(key);
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException | NullPointerException e) {
+      throw new IllegalArgumentException("Configuration " + key + " is not a number: " + value);
+    }
+  }
+
+  /**
+   * Creates the repository selected by the "repository" key, behind a WriteBehindRepository unless "writeBehind" is 0.
+   * @return  a JdbcMealRepository or an InMemoryMealRepository, possibly wrapped
+   */
+  MealRepository createRepository() {
+    MealRepository repository = switch (get("repository")) {
+      case "memory" -> new InMemoryMealRepository();
+      case "jdbc" -> new JdbcMealRepository(new ConnectionPool(get("db.url"), get("db.user"), get("db.password"),
+              getInt("db.poolSize"), getInt("db.poolTimeout"), getInt("db.statementCache")), getInt("fetchSize"));
+      default -> throw new IllegalArgumentException("Unknown repository: " + get("repository"));
+    };
+    if (getInt("writeBehind") > 0) {
+      repository = new WriteBehindRepository(repository, getInt("writeBehind"), getInt("writeBehind.batch"),
+              getInt("writeBehind.drainTimeout"));
+    }
+    return repository;
+  }
+}
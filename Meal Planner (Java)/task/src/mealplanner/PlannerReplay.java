@@ -0,0 +1,111 @@
+package mealplanner;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Replays command scripts against the planner, for load testing.  A script is a file of exactly the lines a console
+ * user would type, such as the input of a console session recorded with the "record" setting.  "replay.sessions"
+ * sessions (default one per script) run on "replay.threads" threads at once, all sharing the repository and the
+ * catalog like the sessions of the server; session i replays script i modulo the number of scripts as owner
+ * "owner i", so sessions never replace each other's plans.  Scripts are read into memory before the clock starts,
+ * and each session prints through a buffer to its own transcript in the "replay.output" directory, or to nowhere
+ * when that is empty, so a run measures the planner rather than the disk or the terminal.  Reports the commands per
+ * second of the run and the latency percentiles of the commands (see PlannerStats) when all sessions are done.
+ */
+class PlannerReplay {
+  private final static int BUFFER = 1 << 16;  // bytes of session output per write
+  private final MealRepository repository;
+  private final PlannerConfig config;
+  private final MealCatalog catalog;
+
+  /**
+   * @param repository  the storage of meals and plans shared by all sessions
+   * @param config      the settings of the program
+   * @param catalog     the loaded catalog shared by all sessions
+   */
+  PlannerReplay(MealRepository repository, PlannerConfig config, MealCatalog catalog) {
+    this.repository = repository;
+    this.config = config;
+    this.catalog = catalog;
+  }
+
+  /**
+   * Runs the sessions of the scripts and prints the report.
+   * @param scripts       the paths of the scripts
+   * @param report        the destination of the report
+   * @throws IOException  if a script cannot be read or a transcript cannot be created
+   */
+  void replay(List<String> scripts, PrintStream report) throws IOException {
+    if (scripts.isEmpty()) {
+      report.println("No scripts given.");
+      return;
+    }
+    List<String> inputs = new ArrayList<>();
+    for (String script : scripts) {
+      inputs.add(Files.readString(Path.of(script)));
+    }
+    int sessions = config.getInt("replay.sessions") > 0 ? config.getInt("replay.sessions") : scripts.size();
+    int threads = Math.max(1, Math.min(sessions, config.getInt("replay.threads")));
+    String output = config.get("replay.output");
+    Path transcripts = output == null || output.isBlank() ? null : Files.createDirectories(Path.of(output));
+    String owner = config.get("owner");
+    if (!PlannerServer.OWNER.matcher(owner + " " + sessions).matches()) {
+      report.println("Unable to replay: the session names would not fit an owner name.");
+      return;
+    }
+    ExecutorService workers = Executors.newFixedThreadPool(threads);
+    long start = System.nanoTime();
+    try {
+      List<Future<Long>> results = new ArrayList<>();
+      for (int i = 0; i < sessions; i++) {
+        String input = inputs.get(i % inputs.size());
+        String name = owner + " " + (i + 1);
+        Path transcript = transcripts == null ? null : transcripts.resolve(name.replace(' ', '_') + ".out");
+        results.add(workers.submit(() -> session(input, name, transcript)));
+      }
+      long commands = 0;
+      int failed = 0;
+      for (Future<Long> result : results) {
+        try {
+          commands += result.get();
+        } catch (ExecutionException e) {
+          failed++;
+          System.err.println("Replay session failed: " + e.getCause());
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      report.printf("Replayed %d sessions of %d scripts on %d threads: %d commands in %.1f ms (%.0f commands/s).%n",
+              sessions - failed, scripts.size(), threads, commands, seconds * 1000,
+              commands / Math.max(seconds, 1e-9));
+      PlannerStats.print(report);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      report.println("Replay interrupted.");
+    } finally {
+      workers.shutdown();
+    }
+  }
+
+  /**
+   * Runs one session until its script exits or ends.
+   * @return  the number of commands the session ran
+   */
+  private long session(String input, String owner, Path transcript) throws IOException, SQLException {
+    try (OutputStream sink = transcript == null ? OutputStream.nullOutputStream() :
+            Files.newOutputStream(transcript);
+         PrintStream out = new PrintStream(new BufferedOutputStream(sink, BUFFER), false, StandardCharsets.UTF_8)) {
+      Main planner = new Main(repository, config, catalog, new Scanner(input), out, owner);
+      try {
+        planner.menu();
+      } catch (NoSuchElementException e) {
+        // the script ended without the exit command
+      }
+      return planner.commands();
+    }
+  }
+}
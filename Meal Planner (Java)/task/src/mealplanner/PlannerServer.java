@@ -0,0 +1,128 @@
+package mealplanner;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the planner menu to many users at once over a plain line protocol: a client connects to "server.port"
+ * (default 7070), answers "Who is planning?" with the owner name of its plan, and from then on sends exactly the
+ * lines a console user would type and receives exactly the text the console would print.  "exit" ends the session.
+ * Every connection runs its own Main session - own plan, own input and output - on its own thread, while the
+ * repository and the meal catalog are shared.  Sessions run on virtual threads when the runtime provides them
+ * (Java 21+) and on a cached pool of platform threads otherwise, which the build for Java 17 always gets.  Either
+ * way at most "server.sessions" sessions run at once - a client connecting beyond that is told to try again later -
+ * and a session whose client sends nothing for "server.idleTimeout" seconds is ended, so idle or slow clients cannot
+ * hold threads for good.
+ * Clients are not authenticated, so the server listens on "server.address", the loopback address unless configured
+ * otherwise, and the import, save and export commands of its sessions only reach the files of the "server.files"
+ * directory.
+ */
+class PlannerServer {
+  final static Pattern OWNER = Pattern.compile("[\\w ]{1,30}");  // fits plans.owner VARCHAR(30)
+
+  private final MealRepository repository;
+  private final PlannerConfig config;
+  private final MealCatalog catalog;
+
+  /**
+   * @param repository  the storage of meals and plans shared by all sessions
+   * @param config      the settings of the program
+   * @param catalog     the loaded catalog shared by all sessions
+   */
+  PlannerServer(MealRepository repository, PlannerConfig config, MealCatalog catalog) {
+    this.repository = repository;
+    this.config = config;
+    this.catalog = catalog;
+  }
+
+  /**
+   * Accepts connections until the process is stopped, starting a session for each.
+   * @throws IOException  if the server socket cannot be opened
+   */
+  void serve() throws IOException {
+    int port = config.getInt("server.port");
+    InetAddress address = InetAddress.getByName(config.get("server.address"));
+    Path files = Files.createDirectories(Path.of(config.get("server.files"))).toRealPath();
+    int idleTimeout = (int) TimeUnit.SECONDS.toMillis(config.getInt("server.idleTimeout"));
+    Semaphore slots = new Semaphore(config.getInt("server.sessions"));
+    ExecutorService sessions = newSessionExecutor();
+    try (ServerSocket server = new ServerSocket(port, 0, address)) {
+      System.err.println("Serving the meal planner on " + address.getHostAddress() + " port " + port + ", files in " +
+              files + ".");
+      while (true) {
+        Socket socket = server.accept();
+        if (!slots.tryAcquire()) {
+          refuse(socket);
+          continue;
+        }
+        try {
+          socket.setSoTimeout(idleTimeout);
+          sessions.execute(() -> {
+            try {
+              session(socket, files);
+            } finally {
+              slots.release();
+            }
+          });
+        } catch (IOException | RejectedExecutionException e) {
+          slots.release();
+          refuse(socket);
+        }
+      }
+    } finally {
+      sessions.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs one client session until the client exits or disconnects.
+   * @param socket  the connection of the client, closed on return
+   * @param files   the directory the file commands of the session are confined to
+   */
+  private void session(Socket socket, Path files) {
+    try (socket;
+         Scanner in = new Scanner(socket.getInputStream(), StandardCharsets.UTF_8);
+         PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false,
+                 StandardCharsets.UTF_8)) {
+      out.println("Who is planning?");
+      out.flush();
+      String owner = in.nextLine().trim();
+      while (!OWNER.matcher(owner).matches()) {
+        out.println("Wrong format. Use up to 30 letters, digits or spaces!");
+        out.flush();
+        owner = in.nextLine().trim();
+      }
+      new Main(repository, config, catalog, in, out, owner, files).menu();
+    } catch (IOException | NoSuchElementException e) {
+      // the client went away, or sent nothing for idleTimeout: the Scanner ends its input on the timeout
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Turns a client away while the most sessions are served, or if its session cannot be started.
+   * @param socket  the connection of the client, closed on return
+   */
+  private static void refuse(Socket socket) {
+    try (socket; PrintStream out = new PrintStream(socket.getOutputStream(), false, StandardCharsets.UTF_8)) {
+      out.println("The planner is busy, please try again later.");
+    } catch (IOException e) {
+      // the client went away
+    }
+  }
+
+  private static ExecutorService newSessionExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool();
+    }
+  }
+}
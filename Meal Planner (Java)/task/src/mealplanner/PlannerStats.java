@@ -0,0 +1,182 @@
+package mealplanner;
+
+import jdk.jfr.*;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Process-wide counters of the program, printed by the stats command.  Records every database round trip (statement
+ * executions, batches, commits and rollbacks) with its time per SQL text, and a latency histogram per menu command.
+ * Recording is a few atomic adds per call and every record is also emitted as a JFR event (mealplanner.Query,
+ * mealplanner.Command), which costs nothing unless a flight recording is running - so it is always on.
+ */
+final class PlannerStats {
+  private final static Map<String, Timer> queries = new ConcurrentHashMap<>();  // SQL text -> executions
+  private final static Map<String, Timer> commands = new ConcurrentHashMap<>();  // menu command -> runs
+  private final static Timer allCommands = new Timer();
+  private final static LongAdder roundTrips = new LongAdder();
+
+  private PlannerStats() {
+  }
+
+  @Name("mealplanner.Query")
+  @Label("Database Round Trip")
+  @Category("Meal Planner")
+  @StackTrace(false)
+  static class QueryEvent extends Event {
+    @Label("SQL")
+    String sql;
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+  }
+
+  @Name("mealplanner.Command")
+  @Label("Menu Command")
+  @Category("Meal Planner")
+  @StackTrace(false)
+  static class CommandEvent extends Event {
+    @Label("Command")
+    String command;
+    @Label("Latency")
+    @Timespan(Timespan.NANOSECONDS)
+    long latency;
+    @Label("Input Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long inputWait;
+  }
+
+  /**
+   * Count and latency histogram of one kind of operation.  Latencies fall into power-of-two microsecond buckets.
+   */
+  private static class Timer {
+    private final static int BUCKETS = 40;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);  // bucket i holds latencies < 2^i us
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private void record(long nanos) {
+      long micros = nanos / 1000;
+      int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * @param fraction  the percentile as a fraction, such as 0.99
+     * @return          an upper bound of the percentile in milliseconds
+     */
+    private double percentile(double fraction) {
+      long total = 0;
+      long[] counts = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        total += counts[i];
+      }
+      long rank = (long) Math.ceil(fraction * total);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank && counts[i] > 0) {
+          return Math.min((1L << i) / 1000.0, maxNanos.get() / 1e6);
+        }
+      }
+      return maxNanos.get() / 1e6;
+    }
+  }
+
+  /**
+   * Records one database round trip.
+   * @param sql       the SQL text of the statement, or COMMIT/ROLLBACK
+   * @param startNanos the System.nanoTime() when the round trip started
+   */
+  static void query(String sql, long startNanos) {
+    long nanos = System.nanoTime() - startNanos;
+    roundTrips.increment();
+    queries.computeIfAbsent(sql, key -> new Timer()).record(nanos);
+    QueryEvent event = new QueryEvent();
+    if (event.shouldCommit()) {
+      event.sql = sql;
+      event.latency = nanos;
+      event.commit();
+    }
+  }
+
+  /**
+   * Records one run of a menu command.
+   * @param command     the menu command
+   * @param startNanos  the System.nanoTime() when the command started
+   * @param inputNanos  the time the command spent waiting for user input, which is left out of its latency
+   */
+  static void command(String command, long startNanos, long inputNanos) {
+    long nanos = System.nanoTime() - startNanos - inputNanos;
+    commands.computeIfAbsent(command, key -> new Timer()).record(nanos);
+    allCommands.record(nanos);
+    CommandEvent event = new CommandEvent();
+    if (event.shouldCommit()) {
+      event.command = command;
+      event.latency = nanos;
+      event.inputWait = inputNanos;
+      event.commit();
+    }
+  }
+
+  /**
+   * Prints the command latencies and the database round trips recorded since the program started.
+   * @param out the destination of the report
+   */
+  static void print(PrintStream out) {
+    out.println("Commands (latency without input wait, ms):");
+    out.printf("%-8s %8s %9s %9s %9s %9s%n", "command", "count", "p50", "p90", "p99", "max");
+    Map<String, Timer> rows = new TreeMap<>(commands);
+    if (rows.size() > 1) {
+      rows.put("(all)", allCommands);
+    }
+    for (Map.Entry<String, Timer> entry : rows.entrySet()) {
+      Timer timer = entry.getValue();
+      out.printf("%-8s %8d %9.3f %9.3f %9.3f %9.3f%n", entry.getKey(), timer.count.sum(), timer.percentile(0.5),
+              timer.percentile(0.9), timer.percentile(0.99), timer.maxNanos.get() / 1e6);
+    }
+    out.println("Database round trips: " + roundTrips.sum());
+    out.printf("%8s %10s %9s %9s  %s%n", "count", "total ms", "avg ms", "p99 ms", "statement");
+    for (Map.Entry<String, Timer> entry : new TreeMap<>(queries).entrySet()) {
+      Timer timer = entry.getValue();
+      long count = timer.count.sum();
+      double total = timer.totalNanos.sum() / 1e6;
+      out.printf("%8d %10.3f %9.3f %9.3f  %s%n", count, total, count == 0 ? 0 : total / count,
+              timer.percentile(0.99), entry.getKey());
+    }
+  }
+
+  /**
+   * Prints the size of the catalog, its ingredient table and the heap in use, also scaled to a million meals so that
+   * catalogs of different sizes can be compared.  The heap includes everything else the program holds, garbage too
+   * unless a full collection is forced first, so its scaled figure is only meaningful for large catalogs.  Forcing a
+   * collection pauses every session, so only an operator measuring the catalog should ask for it.
+   * @param out     the destination of the report
+   * @param catalog the catalog of the program
+   * @param collect true to force a full collection before measuring the heap
+   */
+  static void printHeap(PrintStream out, MealCatalog catalog, boolean collect) {
+    if (collect) {
+      System.gc();
+    }
+    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    IngredientTable ingredients = catalog.getIngredients();
+    int meals = catalog.size();
+    out.printf("Catalog: %d meals, %d ingredient names, %d ingredient references%n", meals,
+            ingredients.distinct(), ingredients.references());
+    // bytes per meal = MB per million meals
+    out.printf("Ingredient table: %.1f MB (%.1f MB per million meals)%n", ingredients.bytes() / 1e6,
+            meals == 0 ? 0 : ingredients.bytes() / (double) meals);
+    out.printf("Heap in use%s: %.1f MB (%.1f MB per million meals)%n", collect ? " after a full collection" : "",
+            used / 1e6, meals == 0 ? 0 : used / (double) meals);
+  }
+}
@@ -0,0 +1,263 @@
+package mealplanner;
+
+import java.sql.*;
+import java.util.List;
+
+/**
+ * The versioned schema of meals_db.  Each migration is a list of statements (or a step that builds them from the
+ * stored data) applied once, in version order, inside
+ * its own transaction together with its row in "schema_version", so a database is always at exactly one version and
+ * a program started against an older database upgrades it in place.  Migrations only ever add or rename: no table
+ * holding user data is dropped.  New schema changes go at the end of MIGRATIONS with the next version number; applied
+ * migrations must never be edited.
+ */
+final class SchemaMigrations {
+  private final static List<Migration> MIGRATIONS = List.of(
+          // the tables as created by every release before versioning; the IF NOT EXISTS adopts an existing database
+          new Migration(1, "meals, ingredients and plans",
+                  "CREATE TABLE IF NOT EXISTS meals (" +
+                          "meal_id INTEGER PRIMARY KEY," +
+                          "category VARCHAR(30)," +
+                          "meal VARCHAR(30)" +
+                          ")",
+                  "CREATE TABLE IF NOT EXISTS ingredients (" +
+                          "ingredient_id INTEGER PRIMARY KEY," +
+                          "ingredient VARCHAR(30)," +
+                          "meal_id INTEGER" +
+                          ")",
+                  "CREATE TABLE IF NOT EXISTS plans (" +
+                          "plan_id SERIAL PRIMARY KEY," +
+                          "owner VARCHAR(30) NOT NULL UNIQUE," +
+                          "version INTEGER NOT NULL" +
+                          ")",
+                  "CREATE TABLE IF NOT EXISTS plan_slots (" +
+                          "plan_id INTEGER NOT NULL," +
+                          "day VARCHAR(10) NOT NULL," +
+                          "category VARCHAR(30) NOT NULL," +
+                          "meal_id INTEGER NOT NULL," +
+                          "PRIMARY KEY (plan_id, day, category)" +
+                          ")"),
+          // every ingredient name is stored once; meals refer to it by name_id
+          new Migration(2, "ingredient dictionary",
+                  "CREATE TABLE ingredient_names (" +
+                          "name_id SERIAL PRIMARY KEY," +
+                          "name VARCHAR(30) NOT NULL UNIQUE" +
+                          ")",
+                  "INSERT INTO ingredient_names (name) " +
+                          "SELECT DISTINCT ingredient FROM ingredients " +
+                          "WHERE ingredient IS NOT NULL AND ingredient <> '' " +
+                          "ORDER BY ingredient",
+                  "CREATE TABLE meal_ingredients (" +
+                          "ingredient_id INTEGER PRIMARY KEY," +
+                          "meal_id INTEGER NOT NULL REFERENCES meals (meal_id)," +
+                          "name_id INTEGER NOT NULL REFERENCES ingredient_names (name_id)" +
+                          ")",
+                  "INSERT INTO meal_ingredients (ingredient_id, meal_id, name_id) " +
+                          "SELECT ingredients.ingredient_id, ingredients.meal_id, ingredient_names.name_id " +
+                          "FROM ingredients " +
+                          "JOIN meals ON meals.meal_id = ingredients.meal_id " +
+                          "JOIN ingredient_names ON ingredient_names.name = ingredients.ingredient",
+                  // kept as it was, so rows that did not fit the new tables are not lost
+                  "ALTER TABLE ingredients RENAME TO ingredients_v1"),
+          new Migration(3, "indexes and foreign keys",
+                  "ALTER TABLE meals ALTER COLUMN category SET NOT NULL",
+                  "ALTER TABLE meals ALTER COLUMN meal SET NOT NULL",
+                  "CREATE UNIQUE INDEX meals_category_meal ON meals (category, meal)",
+                  "CREATE INDEX meal_ingredients_meal ON meal_ingredients (meal_id, ingredient_id)",
+                  "ALTER TABLE plan_slots ADD CONSTRAINT plan_slots_plan " +
+                          "FOREIGN KEY (plan_id) REFERENCES plans (plan_id)",
+                  "ALTER TABLE plan_slots ADD CONSTRAINT plan_slots_meal " +
+                          "FOREIGN KEY (meal_id) REFERENCES meals (meal_id)",
+                  "CREATE INDEX plan_slots_meal ON plan_slots (meal_id)"),
+          // one row per stored meal, in the order they were stored, for catalog snapshots to catch up from
+          new Migration(4, "meal change log",
+                  "CREATE TABLE meal_changes (" +
+                          "change_id BIGSERIAL PRIMARY KEY," +
+                          "meal_id INTEGER NOT NULL REFERENCES meals (meal_id)" +
+                          ")"),
+          // blocks of ids for IdAllocator, INCREMENT BY being the block size; they start after the ids handed out by
+          // the in-process counters of earlier releases, which only one program at a time could use
+          new Migration(5, "id sequences", statement -> {
+            statement.executeUpdate("CREATE SEQUENCE meal_ids START WITH " +
+                    nextId(statement, "SELECT MAX(meal_id) FROM meals") + " MINVALUE 0 INCREMENT BY 100");
+            statement.executeUpdate("CREATE SEQUENCE ingredient_ids START WITH " +
+                    nextId(statement, "SELECT MAX(ingredient_id) FROM meal_ingredients") +
+                    " MINVALUE 0 INCREMENT BY 1000");
+          }),
+          // plans by date, of any length; the primary key is the date index of the calendar of each owner
+          new Migration(6, "dated plans",
+                  "CREATE TABLE calendar_slots (" +
+                          "owner VARCHAR(30) NOT NULL," +
+                          "plan_date DATE NOT NULL," +
+                          "category VARCHAR(30) NOT NULL," +
+                          "meal_id INTEGER NOT NULL REFERENCES meals (meal_id)," +
+                          "PRIMARY KEY (owner, plan_date, category)" +
+                          ")"),
+          // the change log also records the stores of plans, by owner, for other programs to drop their cached plans
+          new Migration(7, "plan change log",
+                  "ALTER TABLE meal_changes ALTER COLUMN meal_id DROP NOT NULL",
+                  "ALTER TABLE meal_changes ADD COLUMN owner VARCHAR(30)"),
+          // releases before versioning did not prevent two meals of the same category and name, which the unique
+          // index of migration 3 refuses: the lowest meal_id of each is kept and takes over the plan slots and
+          // ingredients of the others, which are moved aside.  A database below version 3 gets this ahead of
+          // migration 3; one past it had no duplicates, so here it only gains the tables
+          new Migration(8, "duplicate meals", 3,
+                  "UPDATE meals SET category = '' WHERE category IS NULL",
+                  "UPDATE meals SET meal = '' WHERE meal IS NULL",
+                  "CREATE TABLE IF NOT EXISTS meals_duplicates (" +
+                          "meal_id INTEGER PRIMARY KEY," +
+                          "category VARCHAR(30) NOT NULL," +
+                          "meal VARCHAR(30) NOT NULL," +
+                          "kept_meal_id INTEGER NOT NULL" +
+                          ")",
+                  "INSERT INTO meals_duplicates (meal_id, category, meal, kept_meal_id) " +
+                          "SELECT meals.meal_id, meals.category, meals.meal, kept.meal_id " +
+                          "FROM meals " +
+                          "JOIN (SELECT category, meal, MIN(meal_id) AS meal_id FROM meals GROUP BY category, meal) " +
+                          "kept ON kept.category = meals.category AND kept.meal = meals.meal " +
+                          "WHERE meals.meal_id <> kept.meal_id",
+                  "UPDATE plan_slots SET meal_id = (SELECT kept_meal_id FROM meals_duplicates " +
+                          "WHERE meals_duplicates.meal_id = plan_slots.meal_id) " +
+                          "WHERE meal_id IN (SELECT meal_id FROM meals_duplicates)",
+                  // an ingredient the kept meal lists already is moved aside rather than listed twice
+                  "CREATE TABLE IF NOT EXISTS meal_ingredients_duplicates (" +
+                          "ingredient_id INTEGER PRIMARY KEY," +
+                          "meal_id INTEGER NOT NULL," +
+                          "name_id INTEGER NOT NULL" +
+                          ")",
+                  "INSERT INTO meal_ingredients_duplicates (ingredient_id, meal_id, name_id) " +
+                          "SELECT ingredient_id, meal_id, name_id FROM meal_ingredients " +
+                          "WHERE meal_id IN (SELECT meal_id FROM meals_duplicates) " +
+                          "AND EXISTS (SELECT 1 FROM meal_ingredients kept " +
+                          "JOIN meals_duplicates ON meals_duplicates.kept_meal_id = kept.meal_id " +
+                          "WHERE meals_duplicates.meal_id = meal_ingredients.meal_id " +
+                          "AND kept.name_id = meal_ingredients.name_id)",
+                  "DELETE FROM meal_ingredients " +
+                          "WHERE ingredient_id IN (SELECT ingredient_id FROM meal_ingredients_duplicates)",
+                  "UPDATE meal_ingredients SET meal_id = (SELECT kept_meal_id FROM meals_duplicates " +
+                          "WHERE meals_duplicates.meal_id = meal_ingredients.meal_id) " +
+                          "WHERE meal_id IN (SELECT meal_id FROM meals_duplicates)",
+                  "DELETE FROM meals WHERE meal_id IN (SELECT meal_id FROM meals_duplicates)"));
+
+  /** Statements of a migration that depend on the data, such as a sequence that starts after the stored ids. */
+  private interface Step {
+    void apply(Statement statement) throws SQLException;
+  }
+
+  private static class Migration {
+    private final int version;
+    private final String description;
+    /** the version of an earlier migration this one is also applied ahead of, 0 if none */
+    private final int ahead;
+    private final Step step;
+
+    private Migration(int version, String description, String... statements) {
+      this(version, description, 0, statements);
+    }
+
+    /**
+     * A migration that repairs data an earlier migration cannot be applied to.  It is applied in the transaction of
+     * that migration, before it, to a database still below it, and again at its own version to every database, so
+     * its statements must leave a repaired database as it is.
+     * @param ahead  the version of the earlier migration
+     */
+    private Migration(int version, String description, int ahead, String... statements) {
+      this(version, description, ahead, statement -> {
+        for (String sql : statements) {
+          statement.executeUpdate(sql);
+        }
+      });
+    }
+
+    private Migration(int version, String description, Step step) {
+      this(version, description, 0, step);
+    }
+
+    private Migration(int version, String description, int ahead, Step step) {
+      this.version = version;
+      this.description = description;
+      this.ahead = ahead;
+      this.step = step;
+    }
+  }
+
+  private SchemaMigrations() {
+  }
+
+  /**
+   * @return  the version of the newest migration
+   */
+  static int latest() {
+    return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+  }
+
+  /**
+   * Brings the database up to the latest version.  Several programs may start against the same database at once:
+   * each migration first claims its schema_version row, so a second program waits for the first one's transaction
+   * and then skips the migration it applied.
+   * @param con            a connection in autocommit mode, left in autocommit mode
+   * @return               the number of migrations applied
+   * @throws SQLException  if a migration fails; its transaction is rolled back and the database keeps its version
+   */
+  static int migrate(Connection con) throws SQLException {
+    try (Statement statement = con.createStatement()) {
+      statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+              "version INTEGER PRIMARY KEY," +
+              "description VARCHAR(100) NOT NULL," +
+              "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+              ")");
+    }
+    int applied = 0;
+    for (Migration migration : MIGRATIONS) {
+      if (migration.version <= currentVersion(con)) {
+        continue;
+      }
+      con.setAutoCommit(false);
+      try (PreparedStatement claim = con.prepareStatement(
+                   "INSERT INTO schema_version (version, description) VALUES (?, ?)");
+           Statement statement = con.createStatement()) {
+        claim.setInt(1, migration.version);
+        claim.setString(2, migration.description);
+        claim.executeUpdate();
+        for (Migration repair : MIGRATIONS) {
+          if (repair.ahead == migration.version) {
+            repair.step.apply(statement);
+          }
+        }
+        migration.step.apply(statement);
+        con.commit();
+        applied++;
+      } catch (SQLException e) {
+        con.rollback();
+        // another program applied it first
+        if (migration.version > currentVersion(con)) {
+          throw new SQLException("Schema migration " + migration.version + " (" + migration.description +
+                  ") failed", e);
+        }
+      } finally {
+        con.setAutoCommit(true);
+      }
+    }
+    return applied;
+  }
+
+  /**
+   * @param max  a query of the highest id of a table, null if it is empty
+   * @return     the id after it, 0 for an empty table
+   */
+  private static long nextId(Statement statement, String max) throws SQLException {
+    try (ResultSet maxSet = statement.executeQuery(max)) {
+      maxSet.next();
+      long id = maxSet.getLong(1);
+      return maxSet.wasNull() ? 0 : id + 1;
+    }
+  }
+
+  private static int currentVersion(Connection con) throws SQLException {
+    try (Statement statement = con.createStatement();
+         ResultSet versionSet = statement.executeQuery("SELECT MAX(version) FROM schema_version")) {
+      versionSet.next();
+      return versionSet.getInt(1);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package mealplanner;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Running ingredient counts of a plan, kept up to date as plan slots are assigned so that producing the shopping
+ * list needs no query.  Counts are held in a primitive int array indexed directly by the IngredientTable id of the
+ * ingredient, so updating a count neither hashes nor allocates, and the names are read back from the table.
+ */
+class ShoppingList {
+  private int[] counts = new int[64];  // ingredient id -> number of planned uses
+  private int[] order = new int[64];  // ingredient ids in the order they were first seen
+  private int seen = 0;  // number of ids in order
+  private final List<String> names = new ArrayList<>();  // position in order -> ingredient, shared with the table
+  private int distinct = 0;  // number of ids with a count above zero
+
+  /**
+   * Counts every ingredient of a newly planned meal.
+   * @param meal  the Meal assigned to a plan slot
+   */
+  void add(Main.Meal meal) {
+    for (int i = 0; i < meal.getIngredientCount(); i++) {
+      if (count(meal.getIngredientId(i), 1)) {
+        seen(meal.getIngredientId(i), meal.getIngredient(i));
+      }
+    }
+  }
+
+  /**
+   * Counts an ingredient several times at once, as when adding up the lists of a range of days.
+   * @param id           the IngredientTable id of the ingredient
+   * @param uses         the number of planned uses to add
+   * @param ingredients  the table naming the id
+   */
+  void add(int id, int uses, IngredientTable ingredients) {
+    if (count(id, uses)) {
+      seen(id, ingredients.name(id));
+    }
+  }
+
+  /**
+   * @return  true if the id was never counted before, so it still has to be named
+   */
+  private boolean count(int id, int uses) {
+    if (id >= counts.length) {
+      counts = Arrays.copyOf(counts, Math.max(id + 1, counts.length * 2));
+    }
+    boolean first = counts[id] == 0;
+    // a count of -1 marks an id seen before whose count dropped back to zero
+    if (counts[id] <= 0) {
+      counts[id] = 0;
+      distinct++;
+    }
+    counts[id] += uses;
+    return first;
+  }
+
+  /**
+   * Uncounts every ingredient of a meal taken out of a plan slot.
+   * @param meal  the Meal previously passed to add
+   */
+  void remove(Main.Meal meal) {
+    for (int i = 0; i < meal.getIngredientCount(); i++) {
+      int id = meal.getIngredientId(i);
+      if (--counts[id] == 0) {
+        counts[id] = -1;
+        distinct--;
+      }
+    }
+  }
+
+  /**
+   * @return  true if no ingredient is needed
+   */
+  boolean isEmpty() {
+    return distinct == 0;
+  }
+
+  /** Receives the needed ingredients from forEach. */
+  interface Row {
+    void accept(String ingredient, int count) throws IOException;
+  }
+
+  /**
+   * Passes every needed ingredient with its count to the row, in the order ingredients were first seen, without
+   * building anything per row.
+   * @param row           the receiver of the ingredients
+   * @throws IOException  if the row does
+   */
+  void forEach(Row row) throws IOException {
+    for (int i = 0; i < seen; i++) {
+      int count = counts[order[i]];
+      if (count > 0) {
+        row.accept(names.get(i), count);
+      }
+    }
+  }
+
+  /**
+   * Writes one "ingredient" or "ingredient xN" line per needed ingredient, in the order ingredients were first seen.
+   * @param out           the destination of the lines
+   * @throws IOException  if the destination cannot be written
+   */
+  void writeTo(Appendable out) throws IOException {
+    forEach((ingredient, count) -> {
+      out.append(ingredient);
+      if (count > 1) {
+        out.append(" x").append(Integer.toString(count));
+      }
+      out.append('\n');
+    });
+  }
+
+  private void seen(int id, String ingredient) {
+    if (seen == order.length) {
+      order = Arrays.copyOf(order, seen * 2);
+    }
+    order[seen++] = id;
+    names.add(ingredient);
+  }
+}
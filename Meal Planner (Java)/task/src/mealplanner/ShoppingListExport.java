@@ -0,0 +1,248 @@
+package mealplanner;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes shopping lists to files.  The rows of a ShoppingList are streamed straight into a char buffer, encoded to
+ * UTF-8 into a byte buffer and written to a FileChannel a buffer at a time, so exporting builds no String per row and
+ * makes one write call per 64 KB.  The format follows the file name, like the import: ".csv" for an
+ * "ingredient,count" table, ".json" for an array of {"ingredient", "count"} objects, anything else for the text of
+ * the save command ("ingredient" or "ingredient xN" lines); a further ".gz" compresses the file with gzip.  Plain
+ * text is appended to an existing file, as the save command always has; the other formats replace it, since two
+ * documents in one file would not parse.
+ * An export owns its buffers and encoder and reuses them for every file it writes, so each thread should have its
+ * own.
+ */
+final class ShoppingListExport implements ShoppingList.Row {
+  private final static int BUFFER = 1 << 16;
+
+  enum Format { TEXT, CSV, JSON }
+
+  private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+  private final CharBuffer chars = CharBuffer.allocate(BUFFER / 4);
+  private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER);
+  private WritableByteChannel channel;  // of the file being written
+  private Format format;
+  private int rows;  // rows written to the current file
+
+  /**
+   * @param filename  the name of an export file
+   * @return          the format the name asks for
+   */
+  static Format format(String filename) {
+    String name = stripGzip(filename);
+    if (name.endsWith(".csv")) {
+      return Format.CSV;
+    }
+    return name.endsWith(".json") ? Format.JSON : Format.TEXT;
+  }
+
+  /**
+   * @param filename  the name of an export file
+   * @return          true if the name ends in ".gz"
+   */
+  static boolean compressed(String filename) {
+    return filename.endsWith(".gz");
+  }
+
+  private static String stripGzip(String filename) {
+    return compressed(filename) ? filename.substring(0, filename.length() - 3) : filename;
+  }
+
+  /**
+   * Writes a shopping list to a file in the format of its name.
+   * @param list          the list to write
+   * @param file          the destination
+   * @return              the number of bytes added to the file
+   * @throws IOException  if the file cannot be written
+   */
+  long write(ShoppingList list, Path file) throws IOException {
+    format = format(file.getFileName().toString());
+    boolean gzip = compressed(file.getFileName().toString());
+    OpenOption mode = format == Format.TEXT && !gzip ? StandardOpenOption.APPEND :
+            StandardOpenOption.TRUNCATE_EXISTING;
+    // the compressor is closed first, also when the write fails, which ends its Deflater and the file channel
+    try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            mode);
+         GZIPOutputStream compressor = gzip ? new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER) :
+                 null) {
+      // a compressed file is truncated, and the compressor has written its header already
+      long start = gzip ? 0 : fileChannel.size();
+      channel = gzip ? Channels.newChannel(compressor) : fileChannel;
+      encoder.reset();
+      chars.clear();
+      bytes.clear();
+      rows = 0;
+      begin();
+      list.forEach(this);
+      end();
+      flush(true);
+      if (compressor != null) {
+        compressor.finish();
+      }
+      return fileChannel.size() - start;
+    } finally {
+      channel = null;
+    }
+  }
+
+  private void begin() throws IOException {
+    switch (format) {
+      case CSV -> append("ingredient,count\n");
+      case JSON -> append('[');
+      case TEXT -> {
+      }
+    }
+  }
+
+  /**
+   * Writes one row of the list in the current format.
+   */
+  @Override
+  public void accept(String ingredient, int count) throws IOException {
+    switch (format) {
+      case TEXT -> {
+        append(ingredient);
+        if (count > 1) {
+          append(" x");
+          append(count);
+        }
+      }
+      case CSV -> {
+        appendCsv(ingredient);
+        append(',');
+        append(count);
+      }
+      case JSON -> {
+        append(rows == 0 ? "\n  {\"ingredient\": " : ",\n  {\"ingredient\": ");
+        appendJson(ingredient);
+        append(", \"count\": ");
+        append(count);
+        append('}');
+      }
+    }
+    if (format != Format.JSON) {
+      append('\n');
+    }
+    rows++;
+  }
+
+  private void end() throws IOException {
+    if (format == Format.JSON) {
+      append(rows == 0 ? "]\n" : "\n]\n");
+    }
+  }
+
+  private void appendCsv(String value) throws IOException {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+      append(value);
+      return;
+    }
+    append('"');
+    for (int i = 0; i < value.length(); i++) {
+      if (value.charAt(i) == '"') {
+        append('"');
+      }
+      append(value.charAt(i));
+    }
+    append('"');
+  }
+
+  private void appendJson(String value) throws IOException {
+    append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        append('\\');
+        append(c);
+      } else if (c < ' ') {
+        append("\\u00");
+        append(Character.forDigit(c >> 4, 16));
+        append(Character.forDigit(c & 15, 16));
+      } else {
+        append(c);
+      }
+    }
+    append('"');
+  }
+
+  private void append(String value) throws IOException {
+    int offset = 0;
+    while (offset < value.length()) {
+      if (!chars.hasRemaining()) {
+        flush(false);
+      }
+      int length = Math.min(chars.remaining(), value.length() - offset);
+      chars.put(value, offset, offset + length);
+      offset += length;
+    }
+  }
+
+  private void append(char c) throws IOException {
+    if (!chars.hasRemaining()) {
+      flush(false);
+    }
+    chars.put(c);
+  }
+
+  /**
+   * Appends the decimal digits of a non-negative number without making a String of it.
+   */
+  private void append(int value) throws IOException {
+    if (chars.remaining() < 10) {
+      flush(false);
+    }
+    int digits = 1;
+    for (int rest = value / 10; rest > 0; rest /= 10) {
+      digits++;
+    }
+    int end = chars.position() + digits;
+    int position = end;
+    do {
+      chars.put(--position, (char) ('0' + value % 10));
+      value /= 10;
+    } while (value > 0);
+    chars.position(end);
+  }
+
+  /**
+   * Encodes the buffered chars and writes the full byte buffer out; at the end of the file, writes everything.
+   * @param last  true once the last char of the file is buffered
+   */
+  private void flush(boolean last) throws IOException {
+    chars.flip();
+    while (true) {
+      CoderResult result = encoder.encode(chars, bytes, last);
+      if (result.isError()) {
+        result.throwException();
+      }
+      if (!result.isOverflow()) {
+        break;
+      }
+      drain();
+    }
+    if (last) {
+      while (encoder.flush(bytes).isOverflow()) {
+        drain();
+      }
+      drain();
+    }
+    chars.compact();
+  }
+
+  private void drain() throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      channel.write(bytes);
+    }
+    bytes.clear();
+  }
+}
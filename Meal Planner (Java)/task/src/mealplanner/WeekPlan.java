@@ -0,0 +1,87 @@
+package mealplanner;
+
+/**
+ * In-memory model of the weekly plan: one Meal per day and category slot.  The printed form of the plan is rendered
+ * once and cached until a slot is assigned again, so printing an unchanged plan costs no queries and no rendering.
+ * Meals are never edited once saved, so assigning a slot is the only change that can alter the printed plan.  The
+ * shopping list of the plan is updated with each assignment as well.
+ */
+class WeekPlan {
+  static final String[] DAYS = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday"};
+  static final String[] CATEGORIES = {"breakfast", "lunch", "dinner"};
+
+  private final Main.Meal[][] slots = new Main.Meal[DAYS.length][CATEGORIES.length];
+  private String rendered = null;  // cached output of render(), null when stale
+  private final ShoppingList shoppingList = new ShoppingList();
+
+  /**
+   * Assigns a meal to a slot of the plan, moving the ingredient counts of the shopping list from the replaced meal
+   * to the new one, and invalidates the rendered plan.
+   * @param day       index into DAYS
+   * @param category  index into CATEGORIES
+   * @param meal      the planned Meal, or null to clear the slot
+   */
+  void set(int day, int category, Main.Meal meal) {
+    Main.Meal replaced = slots[day][category];
+    if (replaced != null) {
+      shoppingList.remove(replaced);
+    }
+    if (meal != null) {
+      shoppingList.add(meal);
+    }
+    slots[day][category] = meal;
+    rendered = null;
+  }
+
+  /**
+   * @param day       index into DAYS
+   * @param category  index into CATEGORIES
+   * @return          the Meal planned for the slot, or null if the slot is empty
+   */
+  Main.Meal get(int day, int category) {
+    return slots[day][category];
+  }
+
+  /**
+   * @return  the ingredient counts of the planned meals
+   */
+  ShoppingList getShoppingList() {
+    return shoppingList;
+  }
+
+  /**
+   * Renders the plan as printed by the print command: each day on its own line preceded by a blank line, followed
+   * by a "category: meal" line for every planned slot of that day.
+   * @return  the rendered plan
+   */
+  String render() {
+    if (rendered == null) {
+      StringBuilder builder = new StringBuilder();
+      for (int day = 0; day < DAYS.length; day++) {
+        builder.append('\n').append(DAYS[day]).append('\n');
+        for (int category = 0; category < CATEGORIES.length; category++) {
+          Main.Meal meal = slots[day][category];
+          if (meal != null) {
+            builder.append(CATEGORIES[category]).append(": ").append(meal.getName()).append('\n');
+          }
+        }
+      }
+      rendered = builder.toString();
+    }
+    return rendered;
+  }
+
+  /**
+   * @param name  a String of a day or category name
+   * @param names DAYS or CATEGORIES
+   * @return      the index of the name, or -1 if it is not found
+   */
+  static int indexOf(String name, String[] names) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,411 @@
+package mealplanner;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * MealRepository that stores meals and plans behind the back of the user, used when "writeBehind" is above 0.
+ * addMeals and storePlan only put the write in a bounded queue and return; one background writer drains the queue
+ * and stores what it took in as few transactions as it can: all the meals it took go into one addMeals call, and of
+ * several plans of one owner only the newest is stored.  The catalog is updated by the caller right away, so the
+ * program never waits on the database to show or plan a new meal.
+ * A write that fails for a passing reason (lost connection, pool timeout, deadlock) is retried with a growing pause
+ * until it succeeds; one the database rejects outright is retried meal by meal.  A meal that still fails is taken
+ * out of its catalog again and reported on stderr and, when queued for an owner, to the session of that owner through
+ * takeFailedMeals; a plan that fails - as one holding such a meal does - is reported through takeFailedPlan.  When
+ * the queue is full, writers wait for room rather than drop a write.  Reads wait until every write queued before
+ * them is stored, so a session always reads back its own writes, and close() stores everything still queued before
+ * closing the wrapped repository.
+ */
+class WriteBehindRepository implements MealRepository {
+  private final static long FIRST_PAUSE = 100;  // ms before the first retry, doubled up to MAX_PAUSE
+  private final static long MAX_PAUSE = 5000;
+  private final static long POLL = 100;  // ms the idle writer waits for a write before it checks for closing
+
+  private final MealRepository repository;
+  private final BlockingQueue<Write> queue;
+  private final int batchSize;
+  private final long drainTimeout;  // ms close() keeps retrying before it gives up on the queued writes
+  private final Thread writer;
+  private final Object progress = new Object();  // guards queued and stored
+  private long queued = 0;  // writes accepted so far
+  private long stored = 0;  // writes finished so far, stored or reported as failed
+  private volatile boolean closing = false;
+  private volatile long deadline;  // System.nanoTime() after which retries stop, once closing
+  private final Set<String> failedPlans = ConcurrentHashMap.newKeySet();  // owners not yet told of a failed plan
+  private final Map<String, List<Main.Meal>> failedMeals = new ConcurrentHashMap<>();  // by the owner to tell
+
+  /** One queued write: the meals of an addMeals call and the owner to tell, or the plan of a storePlan call. */
+  private static class Write {
+    private final List<Main.Meal> meals;
+    private final String owner;
+    private final WeekPlan week;
+
+    private Write(List<Main.Meal> meals, String owner, WeekPlan week) {
+      this.meals = meals;
+      this.owner = owner;
+      this.week = week;
+    }
+  }
+
+  /**
+   * Starts the background writer.
+   * @param repository    the repository the writes are stored in, closed with this one
+   * @param capacity      the most writes waiting to be stored
+   * @param batchSize     the most writes taken from the queue at once
+   * @param drainTimeout  the seconds close() keeps retrying failed writes before it gives up
+   */
+  WriteBehindRepository(MealRepository repository, int capacity, int batchSize, int drainTimeout) {
+    this.repository = repository;
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.batchSize = batchSize;
+    this.drainTimeout = TimeUnit.SECONDS.toMillis(drainTimeout);
+    this.writer = new Thread(this::writeLoop, "write-behind");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @Override
+  public void createSchema() throws SQLException {
+    repository.createSchema();
+  }
+
+  @Override
+  public int loadMeals(MealSink sink) throws SQLException {
+    awaitStored();
+    return repository.loadMeals(sink);
+  }
+
+  @Override
+  public int loadChanges(long after, MealSink sink) throws SQLException {
+    awaitStored();
+    return repository.loadChanges(after, sink);
+  }
+
+  /**
+   * Reads right away, without waiting for the queued writes: the change log is read for the writes of other programs.
+   */
+  @Override
+  public int tailChanges(long after, ChangeSink sink) throws SQLException {
+    return repository.tailChanges(after, sink);
+  }
+
+  @Override
+  public long lastChange() throws SQLException {
+    awaitStored();
+    return repository.lastChange();
+  }
+
+  @Override
+  public int countMeals() throws SQLException {
+    awaitStored();
+    return repository.countMeals();
+  }
+
+  @Override
+  public String source() {
+    return repository.source();
+  }
+
+  /**
+   * Reserved right away, since the caller needs the id before it can queue the meal.
+   */
+  @Override
+  public int nextMealId() throws SQLException {
+    return repository.nextMealId();
+  }
+
+  /**
+   * Queues the meals, waiting for room if the queue is full.  The meals are stored later, in one transaction of
+   * their own or together with other queued meals.
+   */
+  @Override
+  public void addMeals(List<Main.Meal> meals) throws SQLException {
+    addMeals(null, meals);
+  }
+
+  /**
+   * Queues the meals like addMeals, for a session to learn through takeFailedMeals which of them were not stored.
+   * @param owner  the owner of the session adding the meals
+   */
+  void addMeals(String owner, List<Main.Meal> meals) throws SQLException {
+    // the import reuses its list for the next chunk
+    enqueue(new Write(List.copyOf(meals), owner, null));
+  }
+
+  /**
+   * Queues the plan, waiting for room if the queue is full.  The WeekPlan must not change once queued.
+   */
+  @Override
+  public void storePlan(String owner, WeekPlan week) throws SQLException {
+    enqueue(new Write(null, owner, week));
+  }
+
+  /**
+   * Stores the plans right away, after the writes queued before them: a bulk store is batched already and its caller
+   * waits for it anyway.
+   */
+  @Override
+  public void storePlans(Map<String, WeekPlan> plans) throws SQLException {
+    awaitStored();
+    repository.storePlans(plans);
+  }
+
+  @Override
+  public void loadPlan(String owner, SlotSink sink) throws SQLException {
+    awaitStored();
+    repository.loadPlan(owner, sink);
+  }
+
+  /**
+   * Stores the days right away, after the writes queued before them: a run of dates is one batch already.
+   */
+  @Override
+  public void storeDays(String owner, LocalDate first, Main.Meal[][] days) throws SQLException {
+    awaitStored();
+    repository.storeDays(owner, first, days);
+  }
+
+  @Override
+  public void loadDays(String owner, DaySink sink) throws SQLException {
+    awaitStored();
+    repository.loadDays(owner, sink);
+  }
+
+  /**
+   * Stores the queued writes, retrying failed ones for up to the drain timeout, then closes the wrapped repository.
+   * Writes that could not be stored by then are counted on stderr.
+   */
+  @Override
+  public void close() throws SQLException {
+    drain();
+    repository.close();
+  }
+
+  /**
+   * Stops accepting writes and waits until the queued ones are stored or the drain timeout has passed.  Safe to call
+   * more than once, such as from a shutdown hook and from close().
+   */
+  void drain() {
+    synchronized (progress) {
+      if (!closing) {
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        closing = true;
+      }
+    }
+    try {
+      // the writer is never interrupted: an interrupt can break the connection it is writing on
+      writer.join(drainTimeout + MAX_PAUSE);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    int lost = queue.size();
+    if (lost > 0) {
+      System.err.println("Unable to store " + lost + " queued writes before exiting.");
+      queue.clear();
+    }
+    synchronized (progress) {
+      stored = queued;
+      progress.notifyAll();
+    }
+  }
+
+  /**
+   * Clears the failure of a plan of the owner, so that it is reported once.
+   * @param owner  the owner of the plans of a session
+   * @return       true if a queued plan of the owner could not be stored since the last call
+   */
+  boolean takeFailedPlan(String owner) {
+    return failedPlans.remove(owner);
+  }
+
+  /**
+   * Clears the failed meals of the owner, so that each is reported once.
+   * @param owner  the owner of the meals of a session
+   * @return       the meals queued for the owner that could not be stored since the last call, and were taken out of
+   *               their catalog
+   */
+  List<Main.Meal> takeFailedMeals(String owner) {
+    List<Main.Meal> meals = failedMeals.remove(owner);
+    return meals == null ? List.of() : meals;
+  }
+
+  /**
+   * @return  the number of writes waiting to be stored
+   */
+  int pending() {
+    synchronized (progress) {
+      return (int) (queued - stored);
+    }
+  }
+
+  private void enqueue(Write write) throws SQLException {
+    if (closing) {
+      throw new SQLException("The write-behind queue is closed");
+    }
+    try {
+      // counted first, so that a read right after this call waits for the write
+      synchronized (progress) {
+        queued++;
+      }
+      queue.put(write);
+    } catch (InterruptedException e) {
+      synchronized (progress) {
+        queued--;
+        progress.notifyAll();
+      }
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for room in the write-behind queue", e);
+    }
+  }
+
+  /**
+   * Waits until every write queued so far is stored or reported as failed.
+   * @throws SQLException if interrupted while waiting
+   */
+  private void awaitStored() throws SQLException {
+    synchronized (progress) {
+      long target = queued;
+      while (stored < target) {
+        try {
+          progress.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new SQLException("Interrupted waiting for queued writes", e);
+        }
+      }
+    }
+  }
+
+  private void writeLoop() {
+    List<Write> batch = new ArrayList<>(batchSize);
+    while (true) {
+      try {
+        if (queue.isEmpty() && closing) {
+          return;
+        }
+        Write first = queue.poll(POLL, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+      } catch (InterruptedException e) {
+        return;
+      }
+      queue.drainTo(batch, batchSize - 1);
+      try {
+        write(batch);
+      } catch (RuntimeException e) {
+        // keep the writer alive for the rest of the queue
+        e.printStackTrace();
+      }
+      synchronized (progress) {
+        stored += batch.size();
+        progress.notifyAll();
+      }
+      batch.clear();
+    }
+  }
+
+  /**
+   * Stores a batch taken from the queue: all of its meals in one addMeals call, then the newest plan of every owner
+   * in the batch.  The meals go first because the plans may refer to them.
+   */
+  private void write(List<Write> batch) {
+    List<Write> meals = new ArrayList<>();
+    Map<String, WeekPlan> plans = new LinkedHashMap<>();
+    for (Write write : batch) {
+      if (write.meals == null) {
+        plans.put(write.owner, write.week);
+      } else {
+        meals.add(write);
+      }
+    }
+    if (!meals.isEmpty()) {
+      storeMeals(meals);
+    }
+    for (Map.Entry<String, WeekPlan> plan : plans.entrySet()) {
+      if (!retry(() -> repository.storePlan(plan.getKey(), plan.getValue()))) {
+        System.err.println("Unable to store the plan of " + plan.getKey() + ".");
+        failedPlans.add(plan.getKey());
+      }
+    }
+  }
+
+  /**
+   * Stores meals in one transaction; if the database rejects it, stores the meals one by one so that a single bad
+   * meal does not cost the others.  A meal that is not stored is taken out of its catalog, so that no session plans
+   * it any more, and kept for the owner it was queued for.
+   * @param writes  the meal writes of a batch
+   */
+  private void storeMeals(List<Write> writes) {
+    List<Main.Meal> meals = new ArrayList<>();
+    for (Write write : writes) {
+      meals.addAll(write.meals);
+    }
+    if (retry(() -> repository.addMeals(meals))) {
+      return;
+    }
+    for (Write write : writes) {
+      for (Main.Meal meal : write.meals) {
+        if (meals.size() == 1 || !retry(() -> repository.addMeals(List.of(meal)))) {
+          System.err.println("Unable to store the " + meal.getCategory() + " " + meal.getName() + ".");
+          meal.getCatalog().remove(meal);
+          if (write.owner != null) {
+            // in compute, so that takeFailedMeals cannot take the list while the meal is added to it
+            failedMeals.compute(write.owner, (owner, failed) -> {
+              List<Main.Meal> list = failed == null ? new ArrayList<>() : failed;
+              list.add(meal);
+              return list;
+            });
+          }
+        }
+      }
+    }
+  }
+
+  private interface Store {
+    void run() throws SQLException;
+  }
+
+  /**
+   * Runs a store, retrying it after a pause for as long as it fails for a passing reason - until the drain deadline
+   * once the repository is closing.
+   * @return  true if it succeeded, false if the database rejected it or the deadline passed
+   */
+  private boolean retry(Store store) {
+    long pause = FIRST_PAUSE;
+    while (true) {
+      try {
+        store.run();
+        return true;
+      } catch (SQLException e) {
+        if (!isTransient(e) || closing && System.nanoTime() - deadline > 0) {
+          System.err.println("Write-behind: " + e.getMessage());
+          return false;
+        }
+        try {
+          Thread.sleep(pause);
+        } catch (InterruptedException interrupted) {
+          return false;
+        }
+        pause = Math.min(pause * 2, MAX_PAUSE);
+      }
+    }
+  }
+
+  /**
+   * @return  true for failures that a later attempt may not hit: timeouts, lost connections (SQLState class 08),
+   *          serialization failures and deadlocks (40), and a database out of resources or shutting down (53, 57)
+   */
+  private static boolean isTransient(SQLException e) {
+    if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+      return true;
+    }
+    String state = e.getSQLState();
+    return state != null && (state.startsWith("08") || state.startsWith("40") || state.startsWith("53") ||
+            state.startsWith("57"));
+  }
+}
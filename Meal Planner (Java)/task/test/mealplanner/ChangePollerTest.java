@@ -0,0 +1,57 @@
+package mealplanner;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the poller reads on from the oldest missing change log entry and gives up on every run of missing
+ * entries whose timeout has passed in the same poll.
+ */
+class ChangePollerTest {
+  private final static int NEVER = 3_600_000;  // ms between polls of the timer, the test polls by itself
+
+  private final NavigableMap<Long, String> log = new TreeMap<>();  // committed entries: change id -> owner
+  private final List<Long> reads = new ArrayList<>();  // the entry each poll read after
+  private final MealRepository repository = (MealRepository) Proxy.newProxyInstance(
+          MealRepository.class.getClassLoader(), new Class<?>[]{MealRepository.class}, (proxy, method, args) -> {
+            assertEquals("tailChanges", method.getName());
+            long after = (Long) args[0];
+            MealRepository.ChangeSink sink = (MealRepository.ChangeSink) args[1];
+            reads.add(after);
+            log.tailMap(after, false).forEach(sink::plan);
+            return log.tailMap(after, false).size();
+          });
+
+  @Test
+  void missingEntriesAreWaitedFor() throws SQLException {
+    MealCatalog catalog = new MealCatalog();
+    try (ChangePoller poller = new ChangePoller(repository, catalog, null, 0, NEVER, 60)) {
+      log.put(2L, "ann");
+      assertEquals(1, poller.poll());
+      log.put(1L, "bob");  // committed after 2
+      assertEquals(1, poller.poll());
+      assertEquals(0, poller.poll());
+      assertEquals(List.of(0L, 0L, 2L), reads);
+      assertEquals(2, catalog.planChange("ann"));
+      assertEquals(1, catalog.planChange("bob"));
+    }
+  }
+
+  @Test
+  void everyExpiredGapIsPassedAtOnce() throws SQLException {
+    try (ChangePoller poller = new ChangePoller(repository, new MealCatalog(), null, 0, NEVER, 0)) {
+      // 1, 2 and 4 rolled back
+      log.put(3L, "ann");
+      log.put(5L, "ann");
+      assertEquals(2, poller.poll());
+      assertEquals(0, poller.poll());
+      assertEquals(0, poller.poll());
+      assertEquals(List.of(0L, 0L, 5L), reads);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package mealplanner;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a stored plan reads back as it was stored, empty slots included.
+ */
+class InMemoryMealRepositoryTest {
+  private MealCatalog catalog;
+  private InMemoryMealRepository repository;
+  private Main.Meal oats;
+  private Main.Meal soup;
+
+  @BeforeEach
+  void storeMeals() {
+    catalog = new MealCatalog();
+    repository = new InMemoryMealRepository();
+    oats = new Main.Meal(catalog, repository.nextMealId(), "breakfast", "oats", new String[]{"milk", "oats"});
+    soup = new Main.Meal(catalog, repository.nextMealId(), "dinner", "soup", new String[]{"tomato", "onion"});
+    repository.addMeals(List.of(oats, soup));
+  }
+
+  @Test
+  void clearedSlotIsNotReloaded() {
+    WeekPlan week = new WeekPlan();
+    week.set(0, 0, oats);
+    week.set(0, 2, soup);
+    week.set(3, 2, soup);
+    repository.storePlan("ann", week);
+    assertEquals(Set.of("Monday breakfast " + oats.getId(), "Monday dinner " + soup.getId(),
+            "Thursday dinner " + soup.getId()), load("ann"));
+    week.set(0, 2, null);
+    repository.storePlan("ann", week);
+    assertEquals(Set.of("Monday breakfast " + oats.getId(), "Thursday dinner " + soup.getId()), load("ann"));
+  }
+
+  @Test
+  void clearedSlotIsNotReloadedFromBulkStore() {
+    WeekPlan week = new WeekPlan();
+    week.set(6, 0, oats);
+    repository.storePlans(Map.of("ann", week, "bob", week));
+    week.set(6, 0, null);
+    repository.storePlans(Map.of("ann", week));
+    assertEquals(Set.of(), load("ann"));
+    assertEquals(Set.of("Sunday breakfast " + oats.getId()), load("bob"));
+  }
+
+  private Set<String> load(String owner) {
+    Set<String> slots = new HashSet<>();
+    repository.loadPlan(owner, (day, category, mealId) -> assertTrue(slots.add(day + " " + category + " " + mealId)));
+    return slots;
+  }
+}
@@ -0,0 +1,108 @@
+package mealplanner;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the shopping lists summed by the segment tree of MealCalendar against a sum over every planned day.
+ */
+class MealCalendarTest {
+  private final static String[][] MEALS = {  // category, name, ingredients
+          {"breakfast", "oats", "milk", "oats"},
+          {"breakfast", "eggs", "egg", "milk", "salt"},
+          {"lunch", "salad", "lettuce", "tomato"},
+          {"lunch", "wrap", "tortilla", "chicken", "lettuce"},
+          {"dinner", "soup", "tomato", "onion"},
+          {"dinner", "stew", "beef", "onion", "carrot", "salt"}};
+  private final static LocalDate ORIGIN = LocalDate.of(2021, 6, 1);
+
+  private MealCatalog catalog;
+
+  @BeforeEach
+  void addMeals() {
+    catalog = new MealCatalog();
+    for (int id = 0; id < MEALS.length; id++) {
+      catalog.add(new Main.Meal(catalog, id, MEALS[id][0], MEALS[id][1],
+              Arrays.copyOfRange(MEALS[id], 2, MEALS[id].length)));
+    }
+  }
+
+  @Test
+  void emptyCalendarHasAnEmptyList() {
+    MealCalendar calendar = new MealCalendar(catalog.getIngredients());
+    assertTrue(calendar.shoppingList(ORIGIN, ORIGIN.plusYears(1)).isEmpty());
+    assertNull(calendar.first());
+  }
+
+  @Test
+  void rangeSumsMatchTheDays() throws IOException {
+    Random random = new Random(5);
+    MealCalendar calendar = new MealCalendar(catalog.getIngredients());
+    Map<LocalDate, Main.Meal[]> days = new HashMap<>();
+    // overlapping runs over about three years, grown on both sides, replacing and clearing slots
+    int[][] runs = {{214, 366}, {0, 300}, {699, 366}, {275, 40}, {-30, 20}, {1000, 90}, {150, 400}};
+    for (int[] run : runs) {
+      for (int day = 0; day < run[1]; day++) {
+        LocalDate date = ORIGIN.plusDays(run[0] + day);
+        for (int category = 0; category < WeekPlan.CATEGORIES.length; category++) {
+          Main.Meal meal = random.nextInt(10) == 0 ? null : randomMeal(category, random);
+          calendar.set(date, category, meal);
+          days.computeIfAbsent(date, key -> new Main.Meal[WeekPlan.CATEGORIES.length])[category] = meal;
+        }
+      }
+    }
+    for (int query = 0; query < 200; query++) {
+      LocalDate from = ORIGIN.plusDays(random.nextInt(1200) - 60);
+      LocalDate to = from.plusDays(query % 20 == 0 ? 0 : random.nextInt(500));
+      assertEquals(expected(days, from, to), counts(calendar.shoppingList(from, to)), from + " to " + to);
+    }
+    assertEquals(ORIGIN.minusDays(30), calendar.first());
+    assertEquals(ORIGIN.plusDays(1089), calendar.last());
+  }
+
+  @Test
+  void onlyPlannableDatesAreSet() throws IOException {
+    MealCalendar calendar = new MealCalendar(catalog.getIngredients());
+    Main.Meal meal = randomMeal(0, new Random(5));
+    calendar.set(MealCalendar.LAST_DATE, 0, meal);
+    calendar.set(MealCalendar.FIRST_DATE, 0, meal);
+    assertThrows(IllegalArgumentException.class, () -> calendar.set(MealCalendar.FIRST_DATE.minusDays(1), 0, meal));
+    assertThrows(IllegalArgumentException.class, () -> calendar.set(LocalDate.MAX, 0, meal));
+    assertEquals(MealCalendar.FIRST_DATE, calendar.first());
+    assertEquals(MealCalendar.LAST_DATE, calendar.last());
+    Map<String, Integer> twice = new HashMap<>();
+    for (int i = 0; i < meal.getIngredientCount(); i++) {
+      twice.put(meal.getIngredient(i), 2);
+    }
+    assertEquals(twice, counts(calendar.shoppingList(LocalDate.MIN, LocalDate.MAX)));
+  }
+
+  private Main.Meal randomMeal(int category, Random random) {
+    List<Main.Meal> meals = new ArrayList<>(catalog.getMeals(WeekPlan.CATEGORIES[category]));
+    return meals.get(random.nextInt(meals.size()));
+  }
+
+  private static Map<String, Integer> expected(Map<LocalDate, Main.Meal[]> days, LocalDate from, LocalDate to) {
+    Map<String, Integer> counts = new HashMap<>();
+    for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+      for (Main.Meal meal : days.getOrDefault(date, new Main.Meal[0])) {
+        for (int i = 0; meal != null && i < meal.getIngredientCount(); i++) {
+          counts.merge(meal.getIngredient(i), 1, Integer::sum);
+        }
+      }
+    }
+    return counts;
+  }
+
+  private static Map<String, Integer> counts(ShoppingList list) throws IOException {
+    Map<String, Integer> counts = new HashMap<>();
+    list.forEach((ingredient, count) -> assertNull(counts.put(ingredient, count), ingredient + " listed twice"));
+    return counts;
+  }
+}
@@ -0,0 +1,65 @@
+package mealplanner;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that a queued meal the database rejects is taken out of the catalog and reported to the owner it was queued
+ * for, once.
+ */
+class WriteBehindRepositoryTest {
+  private MealCatalog catalog;
+  private WriteBehindRepository repository;
+
+  @BeforeEach
+  void startWriter() {
+    catalog = new MealCatalog();
+    MealRepository memory = new InMemoryMealRepository();
+    // the in-memory repository cannot fail, so this one refuses the gruel as a database would
+    MealRepository rejecting = (MealRepository) Proxy.newProxyInstance(MealRepository.class.getClassLoader(),
+            new Class<?>[]{MealRepository.class}, (proxy, method, args) -> {
+              if (method.getName().equals("addMeals") &&
+                      ((List<?>) args[0]).stream().anyMatch(meal -> ((Main.Meal) meal).getName().equals("gruel"))) {
+                throw new SQLException("duplicate key value violates unique constraint", "23505");
+              }
+              try {
+                return method.invoke(memory, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+            });
+    repository = new WriteBehindRepository(rejecting, 16, 16, 1);
+  }
+
+  @AfterEach
+  void stopWriter() throws SQLException {
+    repository.close();
+  }
+
+  @Test
+  void rejectedMealIsReportedToItsOwner() throws SQLException {
+    Main.Meal oats = meal("oats");
+    Main.Meal gruel = meal("gruel");
+    repository.addMeals("ann", List.of(oats, gruel));
+    assertEquals(1, repository.countMeals());  // waits for the writer
+    assertEquals(List.of(gruel), repository.takeFailedMeals("ann"));
+    assertEquals(List.of(), repository.takeFailedMeals("ann"));
+    assertEquals(List.of(), repository.takeFailedMeals("bob"));
+    assertSame(oats, catalog.find("breakfast", "oats"));
+    assertNull(catalog.find("breakfast", "gruel"));
+  }
+
+  private Main.Meal meal(String name) throws SQLException {
+    Main.Meal meal = new Main.Meal(catalog, repository.nextMealId(), "breakfast", name, new String[]{"oats"});
+    catalog.add(meal);
+    return meal;
+  }
+}